@@ -0,0 +1,420 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.processor;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generate a BeanMapper for each class annotated with
+ * com.opensearchserver.pojodbc.Mapped.
+ * <p>
+ * The properties are found like the Introspector does: public setters
+ * returning void, public getters (and "is" getters for boolean), including
+ * the inherited ones. The columns are read with the typed getters of the
+ * ResultSet, the parameters are bound with the typed setters of the
+ * PreparedStatement.
+ * </p>
+ * <p>
+ * The processor is registered in META-INF/services: adding the jar to the
+ * compile classpath is enough.
+ * </p>
+ */
+@SupportedAnnotationTypes(MapperProcessor.MAPPED)
+public class MapperProcessor extends AbstractProcessor {
+
+	final static String MAPPED = "com.opensearchserver.pojodbc.Mapped";
+
+	private final static String BEAN_MAPPER = "com.opensearchserver.pojodbc.BeanMapper";
+
+	private final static String SUFFIX = "_PojodbcMapper";
+
+	/**
+	 * The typed getter of the ResultSet (and setter of the PreparedStatement)
+	 * for each type
+	 */
+	private final static Map<String, String> ACCESSORS = new HashMap<String, String>();
+
+	static {
+		ACCESSORS.put("boolean", "Boolean");
+		ACCESSORS.put("java.lang.Boolean", "Boolean");
+		ACCESSORS.put("byte", "Byte");
+		ACCESSORS.put("java.lang.Byte", "Byte");
+		ACCESSORS.put("short", "Short");
+		ACCESSORS.put("java.lang.Short", "Short");
+		ACCESSORS.put("int", "Int");
+		ACCESSORS.put("java.lang.Integer", "Int");
+		ACCESSORS.put("long", "Long");
+		ACCESSORS.put("java.lang.Long", "Long");
+		ACCESSORS.put("float", "Float");
+		ACCESSORS.put("java.lang.Float", "Float");
+		ACCESSORS.put("double", "Double");
+		ACCESSORS.put("java.lang.Double", "Double");
+		ACCESSORS.put("java.lang.String", "String");
+		ACCESSORS.put("java.math.BigDecimal", "BigDecimal");
+		ACCESSORS.put("byte[]", "Bytes");
+		ACCESSORS.put("java.sql.Date", "Date");
+		ACCESSORS.put("java.sql.Time", "Time");
+		ACCESSORS.put("java.sql.Timestamp", "Timestamp");
+	}
+
+	private static class Property {
+
+		private final String name;
+		private String type;
+		private String setter;
+		private String getter;
+		private String getterType;
+
+		private Property(String name) {
+			this.name = name;
+		}
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		TypeElement mapped = processingEnv.getElementUtils().getTypeElement(
+				MAPPED);
+		if (mapped == null)
+			return false;
+		for (Element element : roundEnv.getElementsAnnotatedWith(mapped)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@Mapped can only be used on a class");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			if (!check(type))
+				continue;
+			try {
+				generate(type, findProperties(type));
+			} catch (IOException e) {
+				error(type, "Cannot generate the mapper: " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+				message, element);
+	}
+
+	private boolean check(TypeElement type) {
+		Set<Modifier> modifiers = type.getModifiers();
+		if (!modifiers.contains(Modifier.PUBLIC)
+				|| modifiers.contains(Modifier.ABSTRACT)) {
+			error(type, "A @Mapped class must be public and not abstract");
+			return false;
+		}
+		if (type.getNestingKind() == NestingKind.MEMBER
+				&& !modifiers.contains(Modifier.STATIC)) {
+			error(type, "A nested @Mapped class must be static");
+			return false;
+		}
+		for (ExecutableElement constructor : ElementFilter
+				.constructorsIn(type.getEnclosedElements()))
+			if (constructor.getParameters().isEmpty()
+					&& constructor.getModifiers().contains(Modifier.PUBLIC))
+				return true;
+		error(type, "A @Mapped class needs a public constructor without "
+				+ "arguments");
+		return false;
+	}
+
+	private List<Property> findProperties(TypeElement type) {
+		DeclaredType declaredType = (DeclaredType) type.asType();
+		Map<String, Property> properties = new LinkedHashMap<String, Property>();
+		for (ExecutableElement method : ElementFilter.methodsIn(processingEnv
+				.getElementUtils().getAllMembers(type))) {
+			Set<Modifier> modifiers = method.getModifiers();
+			if (!modifiers.contains(Modifier.PUBLIC)
+					|| modifiers.contains(Modifier.STATIC))
+				continue;
+			String methodName = method.getSimpleName().toString();
+			ExecutableType methodType = (ExecutableType) processingEnv
+					.getTypeUtils().asMemberOf(declaredType, method);
+			List<? extends TypeMirror> params = methodType.getParameterTypes();
+			TypeMirror returnType = methodType.getReturnType();
+			if (methodName.length() > 3 && methodName.startsWith("set")
+					&& params.size() == 1
+					&& returnType.getKind() == TypeKind.VOID) {
+				Property property = getProperty(properties,
+						methodName.substring(3));
+				property.setter = methodName;
+				property.type = typeName(params.get(0));
+			} else if (methodName.length() > 3 && methodName.startsWith("get")
+					&& params.isEmpty()
+					&& returnType.getKind() != TypeKind.VOID
+					&& !methodName.equals("getClass")) {
+				Property property = getProperty(properties,
+						methodName.substring(3));
+				if (property.getter == null || property.getter.startsWith("get")) {
+					property.getter = methodName;
+					property.getterType = typeName(returnType);
+				}
+			} else if (methodName.length() > 2 && methodName.startsWith("is")
+					&& params.isEmpty()
+					&& returnType.getKind() == TypeKind.BOOLEAN) {
+				// Like the Introspector, "is" wins over "get"
+				Property property = getProperty(properties,
+						methodName.substring(2));
+				property.getter = methodName;
+				property.getterType = "boolean";
+			}
+		}
+		return new ArrayList<Property>(properties.values());
+	}
+
+	private static Property getProperty(Map<String, Property> properties,
+			String suffix) {
+		String name = Introspector.decapitalize(suffix);
+		Property property = properties.get(name);
+		if (property == null) {
+			property = new Property(name);
+			properties.put(name, property);
+		}
+		return property;
+	}
+
+	private String typeName(TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	private static boolean isPrimitive(String type) {
+		return type.indexOf('.') == -1 && !type.endsWith("[]");
+	}
+
+	private static String quote(String value) {
+		return '"' + value + '"';
+	}
+
+	private void generate(TypeElement type, List<Property> properties)
+			throws IOException {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName()
+				.toString();
+		String binaryName = processingEnv.getElementUtils()
+				.getBinaryName(type).toString();
+		String simpleName = binaryName.substring(packageName.isEmpty() ? 0
+				: packageName.length() + 1).replace('$', '_')
+				+ SUFFIX;
+		String beanName = type.getQualifiedName().toString();
+
+		List<Property> writables = new ArrayList<Property>();
+		List<Property> readables = new ArrayList<Property>();
+		for (Property property : properties) {
+			if (property.setter != null)
+				writables.add(property);
+			if (property.getter != null)
+				readables.add(property);
+		}
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(
+				packageName.isEmpty() ? simpleName : packageName + '.'
+						+ simpleName, type);
+		PrintWriter out = new PrintWriter(file.openWriter());
+		try {
+			if (!packageName.isEmpty()) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("/**");
+			out.println(" * Generated by " + getClass().getName()
+					+ " for " + beanName + ". Do not edit.");
+			out.println(" */");
+			out.println("public final class " + simpleName + " implements "
+					+ BEAN_MAPPER + "<" + beanName + "> {");
+			out.println();
+			writeProperties(out, writables);
+			out.println("\tpublic " + beanName + " newInstance() {");
+			out.println("\t\treturn new " + beanName + "();");
+			out.println("\t}");
+			out.println();
+			writeSet(out, beanName, writables);
+			writeGet(out, beanName, readables);
+			writeBind(out, beanName, readables);
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeProperties(PrintWriter out,
+			List<Property> writables) {
+		StringBuilder names = new StringBuilder();
+		StringBuilder types = new StringBuilder();
+		for (Property property : writables) {
+			if (names.length() > 0) {
+				names.append(", ");
+				types.append(", ");
+			}
+			names.append(quote(property.name));
+			types.append(property.type).append(".class");
+		}
+		out.println("\tprivate final static String[] PROPERTIES = { " + names
+				+ " };");
+		out.println();
+		out.println("\tprivate final static Class<?>[] TYPES = { " + types
+				+ " };");
+		out.println();
+		out.println("\tpublic String[] getProperties() {");
+		out.println("\t\treturn PROPERTIES.clone();");
+		out.println("\t}");
+		out.println();
+		out.println("\tpublic Class<?>[] getPropertyTypes() {");
+		out.println("\t\treturn TYPES.clone();");
+		out.println("\t}");
+		out.println();
+	}
+
+	private static void writeSet(PrintWriter out, String beanName,
+			List<Property> writables) {
+		// The property types are erased: the casts of the generic types are
+		// unchecked
+		out.println("\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+		out.println("\tpublic Object set(" + beanName
+				+ " bean, int property, java.sql.ResultSet resultSet, "
+				+ "int columnIndex) throws java.sql.SQLException {");
+		out.println("\t\tswitch (property) {");
+		int index = 0;
+		for (Property property : writables) {
+			out.println("\t\tcase " + index++ + ": {");
+			String accessor = ACCESSORS.get(property.type);
+			if (accessor != null) {
+				out.println("\t\t\t" + property.type
+						+ " value = resultSet.get" + accessor
+						+ "(columnIndex);");
+				out.println("\t\t\tif (resultSet.wasNull())");
+				out.println("\t\t\t\treturn null;");
+			} else if (property.type.equals("char")
+					|| property.type.equals("java.lang.Character")) {
+				out.println("\t\t\tString value = resultSet.getString(columnIndex);");
+				out.println("\t\t\tif (value == null || value.isEmpty())");
+				out.println("\t\t\t\treturn null;");
+				out.println("\t\t\tbean." + property.setter
+						+ "(value.charAt(0));");
+				out.println("\t\t\treturn value.charAt(0);");
+				out.println("\t\t}");
+				continue;
+			} else {
+				out.println("\t\t\t" + property.type + " value = ("
+						+ property.type
+						+ ") resultSet.getObject(columnIndex);");
+				out.println("\t\t\tif (value == null)");
+				out.println("\t\t\t\treturn null;");
+			}
+			out.println("\t\t\tbean." + property.setter + "(value);");
+			out.println("\t\t\treturn value;");
+			out.println("\t\t}");
+		}
+		out.println("\t\tdefault:");
+		out.println("\t\t\tthrow new IllegalArgumentException(\"No property \" + property);");
+		out.println("\t\t}");
+		out.println("\t}");
+		out.println();
+	}
+
+	private static void writeGet(PrintWriter out, String beanName,
+			List<Property> readables) {
+		out.println("\tpublic Object get(" + beanName
+				+ " bean, String property) {");
+		out.println("\t\tswitch (property) {");
+		for (Property property : readables) {
+			out.println("\t\tcase " + quote(property.name) + ":");
+			out.println("\t\t\treturn bean." + property.getter + "();");
+		}
+		out.println("\t\tdefault:");
+		out.println("\t\t\tthrow new IllegalArgumentException(\"No readable property \" + property);");
+		out.println("\t\t}");
+		out.println("\t}");
+		out.println();
+	}
+
+	private static void writeBind(PrintWriter out, String beanName,
+			List<Property> readables) {
+		out.println("\t@SuppressWarnings(\"rawtypes\")");
+		out.println("\tpublic int bind(java.sql.PreparedStatement statement, "
+				+ "int index, " + beanName
+				+ " bean, String... properties) throws java.sql.SQLException {");
+		out.println("\t\tfor (String property : properties) {");
+		out.println("\t\t\tswitch (property) {");
+		for (Property property : readables) {
+			out.println("\t\t\tcase " + quote(property.name) + ": {");
+			String accessor = ACCESSORS.get(property.getterType);
+			if (accessor != null && isPrimitive(property.getterType)) {
+				out.println("\t\t\t\tstatement.set" + accessor
+						+ "(index++, bean." + property.getter + "());");
+			} else if (isPrimitive(property.getterType)) {
+				out.println("\t\t\t\tstatement.setString(index++, "
+						+ "String.valueOf(bean." + property.getter + "()));");
+			} else {
+				out.println("\t\t\t\t" + property.getterType + " value = bean."
+						+ property.getter + "();");
+				out.println("\t\t\t\tif (value == null)");
+				out.println("\t\t\t\t\tstatement.setObject(index++, null);");
+				out.println("\t\t\t\telse");
+				if (accessor != null)
+					out.println("\t\t\t\t\tstatement.set" + accessor
+							+ "(index++, value);");
+				else
+					out.println("\t\t\t\t\tstatement.setObject(index++, value);");
+			}
+			out.println("\t\t\t\tbreak;");
+			out.println("\t\t\t}");
+		}
+		out.println("\t\t\tdefault:");
+		out.println("\t\t\t\tthrow new IllegalArgumentException(\"No readable property \" + property);");
+		out.println("\t\t\t}");
+		out.println("\t\t}");
+		out.println("\t\treturn index;");
+		out.println("\t}");
+	}
+}
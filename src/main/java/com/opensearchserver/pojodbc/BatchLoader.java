@@ -0,0 +1,402 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+
+/**
+ * Coalesce individual lookups by key into a few "WHERE key IN (...)" queries.
+ * <p>
+ * The load calls only register the key and return a Future. The pending keys
+ * are fetched together when dispatch() is called, or when the value of one of
+ * the futures is requested. The keys are sent in chunks of maxBatchSize to
+ * respect the limits of the driver. The loaded beans are kept in a cache for
+ * the lifetime of the loader: a loader is meant to be scoped to a request.
+ * </p>
+ * <p>
+ * The keys can be registered from several threads. The queries are executed
+ * without holding the lock of the loader, so the keys registered meanwhile
+ * are collected for the next dispatch. The keys of a failed dispatch are
+ * removed from the cache: the next load queries the database again.
+ * </p>
+ *
+ * <pre>
+ * BatchLoader&lt;Long, User&gt; users = new BatchLoader&lt;Long, User&gt;(
+ * 		connectionManager, User.class,
+ * 		&quot;SELECT * FROM user WHERE id IN ({keys})&quot;, &quot;id&quot;);
+ * for (Order order : orders)
+ * 	userFutures.add(users.load(order.getUserId()));
+ * users.dispatch(); // One query for all the orders
+ * </pre>
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the class of the POJO
+ */
+public class BatchLoader<K, V> {
+
+	/**
+	 * The token replaced by the list of parameters in the SQL query
+	 */
+	public final static String KEYS = "{keys}";
+
+	private final ConnectionManager connectionManager;
+	private final Class<V> beanClass;
+	private final String sql;
+	private final Method keyGetter;
+	private Integer transactionIsolation;
+	private Transaction transaction;
+	private int maxBatchSize;
+
+	private final Map<Object, LoadFuture> futures;
+	private final Map<Object, LoadFuture> pending;
+
+	private class LoadFuture implements Future<V> {
+
+		private boolean done;
+		private V value;
+		private Throwable exception;
+
+		private LoadFuture() {
+			done = false;
+		}
+
+		private void set(V value) {
+			this.value = value;
+			this.done = true;
+		}
+
+		private void fail(Throwable exception) {
+			this.exception = exception;
+			this.done = true;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			synchronized (BatchLoader.this) {
+				return done;
+			}
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			if (!isDone())
+				dispatchQuietly();
+			synchronized (BatchLoader.this) {
+				// The key may be loaded by the dispatch of another thread
+				while (!done)
+					BatchLoader.this.wait();
+				if (exception != null)
+					throw new ExecutionException(exception);
+				return value;
+			}
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException,
+				ExecutionException {
+			return get();
+		}
+	}
+
+	/**
+	 * @param connectionManager
+	 *            provides the connection used by each dispatch
+	 * @param beanClass
+	 *            the class of the POJO
+	 * @param sql
+	 *            the query, containing the {keys} token
+	 * @param keyProperty
+	 *            the property of the POJO holding the key
+	 * @throws IntrospectionException
+	 *             if the property cannot be found
+	 */
+	public BatchLoader(ConnectionManager connectionManager, Class<V> beanClass,
+			String sql, String keyProperty) throws IntrospectionException {
+		if (!sql.contains(KEYS))
+			throw new IllegalArgumentException("The SQL query must contain "
+					+ KEYS);
+		this.connectionManager = connectionManager;
+		this.beanClass = beanClass;
+		this.sql = sql;
+		this.keyGetter = findGetter(beanClass, keyProperty);
+		this.transactionIsolation = null;
+		this.transaction = null;
+		this.maxBatchSize = 1000;
+		this.futures = new HashMap<Object, LoadFuture>();
+		this.pending = new LinkedHashMap<Object, LoadFuture>();
+	}
+
+	private static Method findGetter(Class<?> beanClass, String property)
+			throws IntrospectionException {
+		for (PropertyDescriptor propDesc : Introspector.getBeanInfo(beanClass)
+				.getPropertyDescriptors())
+			if (propDesc.getName().equalsIgnoreCase(property)
+					&& propDesc.getReadMethod() != null)
+				return propDesc.getReadMethod();
+		throw new IntrospectionException("No readable property " + property
+				+ " in " + beanClass.getName());
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *            the maximum number of keys per query (default is 1000)
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * @param transactionIsolation
+	 *            the isolation level of the dispatch transactions, or null
+	 */
+	public void setTransactionIsolation(Integer transactionIsolation) {
+		this.transactionIsolation = transactionIsolation;
+	}
+
+	/**
+	 * Use an existing transaction instead of starting a new one for each
+	 * dispatch. The transaction is not closed by the loader.
+	 * 
+	 * @param transaction
+	 *            the transaction of the current request, or null
+	 */
+	public void setTransaction(Transaction transaction) {
+		synchronized (this) {
+			this.transaction = transaction;
+		}
+	}
+
+	/**
+	 * The JDBC drivers do not always return the key with the same type than
+	 * the one requested (Integer and Long, ...)
+	 */
+	static Object normalize(Object key) {
+		if (key instanceof Number && !(key instanceof BigDecimal)
+				&& !(key instanceof BigInteger) && !(key instanceof Double)
+				&& !(key instanceof Float))
+			return ((Number) key).longValue();
+		return key;
+	}
+
+	/**
+	 * Register a key. Nothing is executed until dispatch() is called or the
+	 * value of a future is requested.
+	 *
+	 * @param key
+	 *            the key to load
+	 * @return a future returning the POJO, or null if the key was not found
+	 */
+	public Future<V> load(K key) {
+		Object normalizedKey = normalize(key);
+		synchronized (this) {
+			LoadFuture future = futures.get(normalizedKey);
+			if (future != null)
+				return future;
+			future = new LoadFuture();
+			futures.put(normalizedKey, future);
+			pending.put(normalizedKey, future);
+			return future;
+		}
+	}
+
+	/**
+	 * Load several keys at once.
+	 *
+	 * @param keys
+	 *            the keys to load
+	 * @return a map of the POJO found
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public Map<K, V> loadAll(Collection<K> keys) throws Exception {
+		Map<K, Future<V>> futureMap = new LinkedHashMap<K, Future<V>>();
+		for (K key : keys)
+			futureMap.put(key, load(key));
+		dispatch();
+		Map<K, V> result = new LinkedHashMap<K, V>();
+		for (Map.Entry<K, Future<V>> entry : futureMap.entrySet()) {
+			V value;
+			try {
+				value = entry.getValue().get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw (Exception) cause;
+			}
+			if (value != null)
+				result.put(entry.getKey(), value);
+		}
+		return result;
+	}
+
+	private void dispatchQuietly() {
+		try {
+			dispatch();
+		} catch (Exception e) {
+			// The exception is reported by the futures
+		}
+	}
+
+	/**
+	 * Execute the queries for every pending key. If the queries fail, the
+	 * futures of the pending keys report the exception and the keys are
+	 * removed from the cache.
+	 *
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public void dispatch() throws Exception {
+		List<Object> keys;
+		Map<Object, LoadFuture> batch;
+		Transaction transaction;
+		int batchSize;
+		synchronized (this) {
+			if (pending.isEmpty())
+				return;
+			keys = new ArrayList<Object>(pending.keySet());
+			batch = new HashMap<Object, LoadFuture>(pending);
+			pending.clear();
+			transaction = this.transaction;
+			batchSize = maxBatchSize;
+		}
+		Map<Object, V> values = new HashMap<Object, V>();
+		boolean ownTransaction = transaction == null;
+		try {
+			if (ownTransaction) {
+				transaction = connectionManager.getNewTransaction(true,
+						transactionIsolation);
+				loadChunks(transaction, keys, batchSize, values);
+			} else {
+				// A shared transaction is used by one dispatch at a time
+				synchronized (transaction) {
+					loadChunks(transaction, keys, batchSize, values);
+				}
+			}
+		} catch (Throwable t) {
+			failed(batch, t);
+			throw t;
+		} finally {
+			if (ownTransaction && transaction != null)
+				transaction.close();
+		}
+		loaded(batch, values);
+	}
+
+	private void loaded(Map<Object, LoadFuture> batch, Map<Object, V> values) {
+		synchronized (this) {
+			for (Map.Entry<Object, LoadFuture> entry : batch.entrySet())
+				entry.getValue().set(values.get(entry.getKey()));
+			notifyAll();
+		}
+	}
+
+	private void failed(Map<Object, LoadFuture> batch, Throwable t) {
+		synchronized (this) {
+			for (Map.Entry<Object, LoadFuture> entry : batch.entrySet()) {
+				LoadFuture future = entry.getValue();
+				future.fail(t);
+				if (futures.get(entry.getKey()) == future)
+					futures.remove(entry.getKey());
+			}
+			notifyAll();
+		}
+	}
+
+	private void loadChunks(Transaction transaction, List<Object> keys,
+			int batchSize, Map<Object, V> values) throws Exception {
+		for (int start = 0; start < keys.size(); start += batchSize) {
+			int end = Math.min(keys.size(), start + batchSize);
+			loadChunk(transaction, keys.subList(start, end), values);
+		}
+	}
+
+	private void loadChunk(Transaction transaction, List<Object> keys,
+			Map<Object, V> values) throws Exception {
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < keys.size(); i++)
+			params.append(i == 0 ? "?" : ", ?");
+		Query query = transaction.prepare(sql.replace(KEYS, params));
+		try {
+			PreparedStatement statement = query.getStatement();
+			int index = 1;
+			for (Object key : keys)
+				statement.setObject(index++, key);
+			for (V bean : query.getResultList(beanClass)) {
+				Object key = normalize(keyGetter.invoke(bean));
+				if (!values.containsKey(key))
+					values.put(key, bean);
+			}
+		} finally {
+			transaction.closeQuery(query);
+		}
+	}
+
+	/**
+	 * Remove a key from the cache. The next load will query the database.
+	 *
+	 * @param key
+	 *            the key to forget
+	 */
+	public void clear(K key) {
+		Object normalizedKey = normalize(key);
+		synchronized (this) {
+			if (!pending.containsKey(normalizedKey))
+				futures.remove(normalizedKey);
+		}
+	}
+
+	/**
+	 * Remove every loaded key from the cache.
+	 */
+	public void clearAll() {
+		synchronized (this) {
+			futures.keySet().retainAll(pending.keySet());
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Map a POJO without reflection. The implementations are generated at build
+ * time for the classes annotated with Mapped, and are found with
+ * BeanMappers.get(Class).
+ *
+ * @param <T>
+ *            the class of the POJO
+ */
+public interface BeanMapper<T> {
+
+	/**
+	 * @return the names of the writable properties, as returned by the
+	 *         Introspector
+	 */
+	String[] getProperties();
+
+	/**
+	 * @return the types of the writable properties, in the same order than
+	 *         getProperties()
+	 */
+	Class<?>[] getPropertyTypes();
+
+	/**
+	 * @return a new instance of the POJO
+	 */
+	T newInstance();
+
+	/**
+	 * Read a column with the typed getter of the ResultSet and call the
+	 * setter of the property. A NULL column is ignored.
+	 *
+	 * @param bean
+	 *            the POJO
+	 * @param property
+	 *            the index of the property in getProperties()
+	 * @param resultSet
+	 *            the ResultSet positioned on the row
+	 * @param columnIndex
+	 *            the index of the column (starting at 1)
+	 * @return the value passed to the setter, or null
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	Object set(T bean, int property, ResultSet resultSet, int columnIndex)
+			throws SQLException;
+
+	/**
+	 * @param bean
+	 *            the POJO
+	 * @param property
+	 *            the name of a readable property
+	 * @return the value returned by the getter
+	 */
+	Object get(T bean, String property);
+
+	/**
+	 * Bind the value of some properties as parameters of a statement.
+	 *
+	 * @param statement
+	 *            the statement
+	 * @param index
+	 *            the index of the first parameter (starting at 1)
+	 * @param bean
+	 *            the POJO
+	 * @param properties
+	 *            the names of readable properties
+	 * @return the index of the next parameter
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	int bind(PreparedStatement statement, int index, T bean,
+			String... properties) throws SQLException;
+}
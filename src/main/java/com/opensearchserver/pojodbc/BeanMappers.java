@@ -0,0 +1,95 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Find the BeanMapper generated for a POJO class. The generated class is in
+ * the package of the POJO, its name is the binary name of the POJO ('$'
+ * replaced by '_') followed by SUFFIX. The result of the lookup is cached.
+ */
+public final class BeanMappers {
+
+	static protected Logger logger = Logger.getLogger(BeanMappers.class
+			.getCanonicalName());
+
+	/**
+	 * The suffix of the generated class names
+	 */
+	public final static String SUFFIX = "_PojodbcMapper";
+
+	private final static Object NONE = new Object();
+
+	private final static ConcurrentHashMap<Class<?>, Object> mappers =
+			new ConcurrentHashMap<Class<?>, Object>();
+
+	private BeanMappers() {
+	}
+
+	/**
+	 * @param beanClass
+	 *            the class of the POJO
+	 * @return the name of the generated mapper class
+	 */
+	public static String getMapperClassName(Class<?> beanClass) {
+		String name = beanClass.getName();
+		int i = name.lastIndexOf('.');
+		return name.substring(0, i + 1)
+				+ name.substring(i + 1).replace('$', '_') + SUFFIX;
+	}
+
+	/**
+	 * @param beanClass
+	 *            the class of the POJO
+	 * @return the generated mapper, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> BeanMapper<T> get(Class<T> beanClass) {
+		Object mapper = mappers.get(beanClass);
+		if (mapper == null) {
+			mapper = load(beanClass);
+			mappers.putIfAbsent(beanClass, mapper);
+		}
+		return mapper == NONE ? null : (BeanMapper<T>) mapper;
+	}
+
+	private static Object load(Class<?> beanClass) {
+		String className = getMapperClassName(beanClass);
+		try {
+			Class<?> mapperClass = Class.forName(className, true,
+					beanClass.getClassLoader());
+			if (!BeanMapper.class.isAssignableFrom(mapperClass))
+				return NONE;
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("Found generated mapper " + className);
+			return mapperClass.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			return NONE;
+		} catch (ReflectiveOperationException e) {
+			logger.log(Level.WARNING, "Cannot instantiate " + className, e);
+			return NONE;
+		} catch (LinkageError e) {
+			logger.log(Level.WARNING, "Cannot load " + className, e);
+			return NONE;
+		}
+	}
+}
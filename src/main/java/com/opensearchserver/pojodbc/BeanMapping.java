@@ -0,0 +1,207 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The columns of a result matched to the properties of a POJO.
+ * <p>
+ * The matching is resolved from the metadata of a result, and reused as long
+ * as the next results have the same column labels. A QueryTemplate keeps one
+ * mapping for all its executions, so the Introspector and the generated
+ * mapper are only consulted once.
+ * </p>
+ *
+ * @param <T>
+ *            the class of the POJO
+ */
+final class BeanMapping<T> {
+
+	static protected Logger logger = Logger.getLogger(BeanMapping.class
+			.getCanonicalName());
+
+	/**
+	 * The matching resolved for a list of column labels
+	 */
+	static class Plan {
+
+		private final String[] labels;
+
+		/**
+		 * The index of the columns matched to a write method
+		 */
+		final int[] columns;
+
+		/**
+		 * The write method of each matched column
+		 */
+		final Method[] methods;
+
+		/**
+		 * The SQL type of each matched column
+		 */
+		final int[] sqlTypes;
+
+		/**
+		 * The index of the columns matched to a property of the generated
+		 * mapper
+		 */
+		final int[] mapperColumns;
+
+		/**
+		 * The index of the property of each mapper column, or null if the
+		 * generated mapper cannot be used (no mapper, or a streamed LOB
+		 * property)
+		 */
+		final int[] properties;
+
+		private Plan(String[] labels, int[] columns, Method[] methods,
+				int[] sqlTypes, int[] mapperColumns, int[] properties) {
+			this.labels = labels;
+			this.columns = columns;
+			this.methods = methods;
+			this.sqlTypes = sqlTypes;
+			this.mapperColumns = mapperColumns;
+			this.properties = properties;
+		}
+	}
+
+	private final Class<T> beanClass;
+	private final BeanMapper<T> mapper;
+	private volatile Plan plan;
+
+	/**
+	 * @param beanClass
+	 *            the class of the POJO
+	 */
+	BeanMapping(Class<T> beanClass) {
+		this.beanClass = beanClass;
+		this.mapper = BeanMappers.get(beanClass);
+		this.plan = null;
+	}
+
+	/**
+	 * @return the class of the POJO
+	 */
+	Class<T> getBeanClass() {
+		return beanClass;
+	}
+
+	/**
+	 * @return the generated mapper, or null
+	 */
+	BeanMapper<T> getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * @param metaData
+	 *            the metadata of the result
+	 * @return the matching of the columns, resolved again if the labels
+	 *         changed
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IntrospectionException
+	 *             if the class of the POJO cannot be introspected
+	 */
+	Plan resolve(ResultSetMetaData metaData) throws SQLException,
+			IntrospectionException {
+		int columnCount = metaData.getColumnCount();
+		String[] labels = new String[columnCount];
+		for (int i = 0; i < columnCount; i++)
+			labels[i] = metaData.getColumnLabel(i + 1);
+		Plan current = plan;
+		if (current != null && Arrays.equals(current.labels, labels))
+			return current;
+		current = resolve(metaData, labels);
+		plan = current;
+		return current;
+	}
+
+	private Plan resolve(ResultSetMetaData metaData, String[] labels)
+			throws SQLException, IntrospectionException {
+		PropertyDescriptor[] props = Introspector.getBeanInfo(beanClass)
+				.getPropertyDescriptors();
+		List<Integer> columnList = new ArrayList<Integer>();
+		List<Method> methodList = new ArrayList<Method>();
+		if (logger.isLoggable(Level.FINEST))
+			logger.finest("Search properties for bean "
+					+ beanClass.getSimpleName());
+		for (int i = 0; i < labels.length; i++) {
+			for (PropertyDescriptor propDesc : props) {
+				if (propDesc.getWriteMethod() != null
+						&& propDesc.getName().equalsIgnoreCase(labels[i])) {
+					columnList.add(i + 1);
+					methodList.add(propDesc.getWriteMethod());
+					if (logger.isLoggable(Level.FINEST))
+						logger.finest("Found property \"" + propDesc.getName()
+								+ "\" for column name \"" + labels[i] + "\"");
+					break;
+				}
+			}
+		}
+		int[] columns = new int[columnList.size()];
+		Method[] methods = methodList.toArray(new Method[columns.length]);
+		int[] sqlTypes = new int[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = columnList.get(i);
+			sqlTypes[i] = metaData.getColumnType(columns[i]);
+		}
+		int[] mapperColumns = null;
+		int[] properties = null;
+		if (mapper != null) {
+			String[] names = mapper.getProperties();
+			Class<?>[] types = mapper.getPropertyTypes();
+			columnList.clear();
+			List<Integer> propertyList = new ArrayList<Integer>();
+			boolean streamed = false;
+			for (int i = 0; i < labels.length && !streamed; i++) {
+				for (int p = 0; p < names.length; p++) {
+					if (names[p].equalsIgnoreCase(labels[i])) {
+						streamed = LobHandle.isStreamedType(types[p]);
+						columnList.add(i + 1);
+						propertyList.add(p);
+						break;
+					}
+				}
+			}
+			if (!streamed) {
+				mapperColumns = new int[columnList.size()];
+				properties = new int[mapperColumns.length];
+				for (int i = 0; i < mapperColumns.length; i++) {
+					mapperColumns[i] = columnList.get(i);
+					properties[i] = propertyList.get(i);
+				}
+			}
+		}
+		return new Plan(labels, columns, methods, sqlTypes, mapperColumns,
+				properties);
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Describe the change-tracking column (a version number or an updated_at
+ * timestamp) used by PageDataModel and PartialList to refresh their window
+ * incrementally.
+ * <p>
+ * A refresh first runs the count query: if the number of rows changed, the
+ * window is reloaded. Otherwise, the changes query returns only the rows
+ * whose version is greater than the high-water mark, and the rows of the
+ * window having the same key are replaced. The high-water mark is the
+ * greatest version of the list, returned by the count query in its second
+ * column (SELECT COUNT(*), MAX(version) ...) when the window is loaded.
+ * Without that column, only the versions of the window are known, and the
+ * first changes query may return every row changed since then.
+ * </p>
+ * <p>
+ * Without comparator, a changed row which is not in the window cannot be
+ * placed (an insert balanced by a delete does not change the count): the
+ * window is reloaded. With the comparator of the ORDER BY clause, the
+ * changed rows outside of the window are ignored, and the window is
+ * reloaded when a changed row moves into, out of, or inside the window. The
+ * versions must increase in commit order (a sequence rather than the clock
+ * of the clients).
+ * </p>
+ *
+ * @param <T>
+ *            the class of the POJO
+ */
+public class ChangeTracking<T> {
+
+	private final Method keyGetter;
+	private final Method versionGetter;
+	private Comparator<? super T> comparator;
+
+	/**
+	 * @param beanClass
+	 *            the class of the POJO
+	 * @param keyProperty
+	 *            the property identifying a row
+	 * @param versionProperty
+	 *            the property mapped to the change-tracking column. Its
+	 *            values must be Comparable.
+	 * @throws IntrospectionException
+	 *             if a property cannot be found
+	 */
+	public ChangeTracking(Class<T> beanClass, String keyProperty,
+			String versionProperty) throws IntrospectionException {
+		this.keyGetter = findGetter(beanClass, keyProperty);
+		this.versionGetter = findGetter(beanClass, versionProperty);
+		this.comparator = null;
+	}
+
+	private static Method findGetter(Class<?> beanClass, String property)
+			throws IntrospectionException {
+		for (PropertyDescriptor propDesc : Introspector.getBeanInfo(beanClass)
+				.getPropertyDescriptors())
+			if (propDesc.getName().equalsIgnoreCase(property)
+					&& propDesc.getReadMethod() != null)
+				return propDesc.getReadMethod();
+		throw new IntrospectionException("No readable property " + property
+				+ " in " + beanClass.getName());
+	}
+
+	/**
+	 * @param comparator
+	 *            the ordering of the list, or null if the ordering does not
+	 *            depend on the updated columns
+	 */
+	public void setComparator(Comparator<? super T> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * @param rows
+	 *            the rows returned by a query
+	 * @param highWaterMark
+	 *            the previous high-water mark, or null
+	 * @return the greatest version
+	 * @throws Exception
+	 *             if the version cannot be read
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Object getHighWaterMark(List<T> rows, Object highWaterMark)
+			throws Exception {
+		for (T row : rows) {
+			Object version = versionGetter.invoke(row);
+			if (version != null
+					&& (highWaterMark == null || ((Comparable) version)
+							.compareTo(highWaterMark) > 0))
+				highWaterMark = version;
+		}
+		return highWaterMark;
+	}
+
+	/**
+	 * @param countQuery
+	 *            a query returning the number of rows in its first column
+	 * @return the number of rows
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	static int count(Query countQuery) throws SQLException {
+		return ((Number) getCountRow(countQuery).get(0)).intValue();
+	}
+
+	/**
+	 * @param countQuery
+	 *            a query returning the number of rows in its first column,
+	 *            and the greatest version of the list in its second column
+	 * @return the greatest version, or null if the query has one column
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	static Object getMaxVersion(Query countQuery) throws SQLException {
+		Row row = getCountRow(countQuery);
+		return row.getColumnCount() < 2 ? null : row.get(1);
+	}
+
+	private static Row getCountRow(Query countQuery) throws SQLException {
+		List<Row> rows = countQuery.getResultList();
+		if (rows.isEmpty())
+			throw new SQLException("The count query returned no row");
+		return rows.get(0);
+	}
+
+	/**
+	 * Replace the rows of the window by their changed version.
+	 *
+	 * @param window
+	 *            the current window
+	 * @param changes
+	 *            the rows changed since the high-water mark
+	 * @param atStart
+	 *            true if the window is at the start of the list
+	 * @param atEnd
+	 *            true if the window is at the end of the list
+	 * @return the window, a patched copy of the window, or null if the window
+	 *         must be reloaded (a changed row moved, or cannot be placed
+	 *         without comparator)
+	 * @throws Exception
+	 *             if the key cannot be read
+	 */
+	List<T> patch(List<T> window, List<T> changes, boolean atStart,
+			boolean atEnd) throws Exception {
+		if (changes.isEmpty())
+			return window;
+		HashMap<Object, T> changeMap = new HashMap<Object, T>();
+		for (T change : changes)
+			changeMap.put(BatchLoader.normalize(keyGetter.invoke(change)),
+					change);
+		List<T> patched = null;
+		for (int i = 0; i < window.size(); i++) {
+			T row = window.get(i);
+			T change = changeMap.remove(BatchLoader.normalize(keyGetter
+					.invoke(row)));
+			if (change == null)
+				continue;
+			if (comparator != null && comparator.compare(row, change) != 0)
+				return null;
+			if (patched == null)
+				patched = new ArrayList<T>(window);
+			patched.set(i, change);
+		}
+		// Without comparator, a row which is not in the window cannot be placed
+		if (comparator == null && !changeMap.isEmpty())
+			return null;
+		if (comparator != null && !window.isEmpty())
+			for (T change : changeMap.values())
+				if (isInWindow(window, change, atStart, atEnd))
+					return null;
+		return patched == null ? window : patched;
+	}
+
+	private boolean isInWindow(List<T> window, T row, boolean atStart,
+			boolean atEnd) {
+		if (!atStart && comparator.compare(row, window.get(0)) <= 0)
+			return false;
+		if (!atEnd
+				&& comparator.compare(row, window.get(window.size() - 1)) >= 0)
+			return false;
+		return true;
+	}
+}
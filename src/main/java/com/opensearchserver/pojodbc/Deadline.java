@@ -0,0 +1,176 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An absolute point in time after which the work of a Transaction or a Query
+ * is no longer useful.
+ * <p>
+ * When a Query has a deadline, the statement timeout is set to the remaining
+ * time, and a watchdog cancels the statement when the deadline passes. An
+ * expired deadline is checked before acquiring a connection and before
+ * executing a statement: the work is shed with an SQLTimeoutException instead
+ * of being executed.
+ * </p>
+ *
+ * <pre>
+ * Deadline deadline = Deadline.after(2, TimeUnit.SECONDS);
+ * transaction = connectionManager.getNewTransaction(deadline, false, null);
+ * </pre>
+ */
+public final class Deadline {
+
+	static protected Logger logger = Logger.getLogger(Deadline.class
+			.getCanonicalName());
+
+	private final static ScheduledThreadPoolExecutor watchdog;
+
+	static {
+		watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "pojodbc-deadline");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		watchdog.setRemoveOnCancelPolicy(true);
+	}
+
+	private final long deadlineNanos;
+
+	private Deadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	/**
+	 * @param duration
+	 *            the remaining time
+	 * @param unit
+	 *            the unit of the duration
+	 * @return a new Deadline
+	 */
+	public static Deadline after(long duration, TimeUnit unit) {
+		return new Deadline(System.nanoTime() + unit.toNanos(duration));
+	}
+
+	/**
+	 * @param unit
+	 *            the unit of the result
+	 * @return the remaining time, negative or zero if expired
+	 */
+	public long remaining(TimeUnit unit) {
+		return unit.convert(deadlineNanos - System.nanoTime(),
+				TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExpired() {
+		return deadlineNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * @param other
+	 *            another deadline, or null
+	 * @return the earliest of the two deadlines
+	 */
+	public Deadline min(Deadline other) {
+		if (other == null)
+			return this;
+		return deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+	}
+
+	/**
+	 * Throw an exception if the deadline has passed
+	 *
+	 * @throws SQLTimeoutException
+	 *             if the deadline has passed
+	 */
+	public void check() throws SQLTimeoutException {
+		if (isExpired())
+			throw new SQLTimeoutException("Deadline exceeded by "
+					+ -remaining(TimeUnit.MILLISECONDS) + " ms");
+	}
+
+	/**
+	 * Set the timeout of the statement to the remaining time (rounded up to the
+	 * second)
+	 *
+	 * @param statement
+	 *            the statement to execute
+	 * @throws SQLException
+	 *             if the deadline has passed or if any JDBC error occurs
+	 */
+	void setQueryTimeout(Statement statement) throws SQLException {
+		check();
+		long remainingMs = remaining(TimeUnit.MILLISECONDS);
+		statement.setQueryTimeout((int) Math.max(1,
+				(remainingMs + 999) / 1000));
+	}
+
+	/**
+	 * Set the timeout of the statement and schedule its cancellation
+	 *
+	 * @param statement
+	 *            the statement to execute
+	 * @return the scheduled cancellation, to be cancelled when the execution
+	 *         is done
+	 * @throws SQLException
+	 *             if the deadline has passed or if any JDBC error occurs
+	 */
+	ScheduledFuture<?> watch(final Statement statement) throws SQLException {
+		setQueryTimeout(statement);
+		return watchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (logger.isLoggable(Level.FINE))
+						logger.fine("Deadline exceeded, cancel statement");
+					statement.cancel();
+				} catch (SQLException e) {
+					logger.log(Level.WARNING, e.getMessage(), e);
+				}
+			}
+		}, remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Translate the exception of a cancelled statement
+	 *
+	 * @param e
+	 *            the exception thrown by the execution
+	 * @return an SQLTimeoutException if the deadline has passed, otherwise
+	 *         the original exception
+	 */
+	SQLException translate(SQLException e) {
+		if (e instanceof SQLTimeoutException || !isExpired())
+			return e;
+		return new SQLTimeoutException("Deadline exceeded", e.getSQLState(),
+				e.getErrorCode(), e);
+	}
+}
@@ -0,0 +1,383 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+
+/**
+ * A read-through cache of POJO loaded by primary key.
+ * <p>
+ * Each registered class has its own region, bounded by a capacity (LRU
+ * eviction) and a time to live. Concurrent misses on the same key are
+ * coalesced: only one query is executed, the other callers wait for its
+ * result. The keys not found are not cached.
+ * </p>
+ * <p>
+ * When the cache is set on the ConnectionManager, the write statements
+ * prepared by a Transaction (Query.update(), batches, MultiQuery, or any
+ * execution of Query.getStatement()) invalidate the regions of the modified
+ * table, when the statement is executed and again when the transaction is
+ * committed or rolled back. The invalidation by table is coarse: use invalidate(Class,
+ * Object) when the key is known.
+ * </p>
+ *
+ * <pre>
+ * EntityCache cache = new EntityCache(connectionManager);
+ * cache.register(User.class, &quot;user&quot;, &quot;id&quot;, 10000, 60, TimeUnit.SECONDS);
+ * connectionManager.setEntityCache(cache);
+ * User user = cache.find(User.class, 42);
+ * </pre>
+ */
+public class EntityCache {
+
+	private final static Pattern WRITE_PATTERN = Pattern.compile(
+			"^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?INTO|REPLACE\\s+INTO|MERGE\\s+INTO"
+					+ "|UPDATE|DELETE\\s+FROM|TRUNCATE(?:\\s+TABLE)?)"
+					+ "\\s+([\\w.$\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+
+	private class Region<T> {
+
+		private final Class<T> beanClass;
+		private final String table;
+		private final String sql;
+		private final int capacity;
+		private final long ttlNanos;
+		private final LinkedHashMap<Object, CachedEntity<T>> entries;
+		private final HashMap<Object, FutureTask<T>> loading;
+		private long generation;
+
+		private Region(Class<T> beanClass, String table, String sql,
+				int capacity, long ttlNanos) {
+			this.beanClass = beanClass;
+			this.table = table;
+			this.sql = sql;
+			this.capacity = capacity;
+			this.ttlNanos = ttlNanos;
+			this.entries = new LinkedHashMap<Object, CachedEntity<T>>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Object, CachedEntity<T>> eldest) {
+					return size() > Region.this.capacity;
+				}
+			};
+			this.loading = new HashMap<Object, FutureTask<T>>();
+			this.generation = 0;
+		}
+
+		private T find(final Object key) throws Exception {
+			FutureTask<T> task;
+			boolean owner = false;
+			synchronized (this) {
+				CachedEntity<T> entry = entries.get(key);
+				if (entry != null) {
+					if (ttlNanos <= 0 || entry.expires - System.nanoTime() > 0) {
+						hitCount.incrementAndGet();
+						return entry.value;
+					}
+					entries.remove(key);
+				}
+				task = loading.get(key);
+				if (task == null) {
+					final long startGeneration = generation;
+					task = new FutureTask<T>(new Callable<T>() {
+						@Override
+						public T call() throws Exception {
+							return load(key, startGeneration);
+						}
+					});
+					loading.put(key, task);
+					owner = true;
+				}
+			}
+			missCount.incrementAndGet();
+			if (owner)
+				task.run();
+			try {
+				return task.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception)
+					throw (Exception) cause;
+				throw e;
+			}
+		}
+
+		private T load(Object key, long startGeneration) throws Exception {
+			T value = null;
+			try {
+				value = query(key);
+				return value;
+			} finally {
+				synchronized (this) {
+					loading.remove(key);
+					// Not stored if invalidated during the load
+					if (value != null && generation == startGeneration)
+						entries.put(key,
+								new CachedEntity<T>(value, System.nanoTime()
+										+ ttlNanos));
+				}
+			}
+		}
+
+		private T query(Object key) throws Exception {
+			loadCount.incrementAndGet();
+			Transaction transaction = null;
+			try {
+				transaction = connectionManager.getNewTransaction(true, null);
+				Query query = transaction.prepare(sql);
+				query.getStatement().setObject(1, key);
+				query.setMaxResults(1);
+				List<T> list = query.getResultList(beanClass);
+				return list.isEmpty() ? null : list.get(0);
+			} finally {
+				if (transaction != null)
+					transaction.close();
+			}
+		}
+
+		private void invalidate(Object key) {
+			synchronized (this) {
+				generation++;
+				entries.remove(key);
+			}
+		}
+
+		private void invalidateAll() {
+			synchronized (this) {
+				generation++;
+				entries.clear();
+			}
+		}
+
+		private int size() {
+			synchronized (this) {
+				return entries.size();
+			}
+		}
+	}
+
+	private static class CachedEntity<T> {
+
+		private final T value;
+		private final long expires;
+
+		private CachedEntity(T value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private final ConnectionManager connectionManager;
+	private final ConcurrentHashMap<Class<?>, Region<?>> regions;
+	private final AtomicLong hitCount;
+	private final AtomicLong missCount;
+	private final AtomicLong loadCount;
+
+	/**
+	 * @param connectionManager
+	 *            provides the connections used to load the POJO
+	 */
+	public EntityCache(ConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+		this.regions = new ConcurrentHashMap<Class<?>, Region<?>>();
+		this.hitCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+		this.loadCount = new AtomicLong();
+	}
+
+	/**
+	 * Register a class. The POJO are loaded with "SELECT * FROM table WHERE
+	 * idColumn=?".
+	 *
+	 * @param beanClass
+	 *            the class of the POJO
+	 * @param table
+	 *            the name of the table
+	 * @param idColumn
+	 *            the name of the primary key column
+	 * @param capacity
+	 *            the maximum number of POJO kept for this class
+	 * @param ttl
+	 *            the time to live of an entry, or 0 for no expiration
+	 * @param unit
+	 *            the unit of the time to live
+	 */
+	public <T> void register(Class<T> beanClass, String table,
+			String idColumn, int capacity, long ttl, TimeUnit unit) {
+		registerQuery(beanClass, table, "SELECT * FROM " + table + " WHERE "
+				+ idColumn + "=?", capacity, ttl, unit);
+	}
+
+	/**
+	 * Register a class with a custom query.
+	 *
+	 * @param beanClass
+	 *            the class of the POJO
+	 * @param table
+	 *            the name of the table whose updates invalidate the region
+	 * @param sql
+	 *            the query, with the key as only parameter
+	 * @param capacity
+	 *            the maximum number of POJO kept for this class
+	 * @param ttl
+	 *            the time to live of an entry, or 0 for no expiration
+	 * @param unit
+	 *            the unit of the time to live
+	 */
+	public <T> void registerQuery(Class<T> beanClass, String table, String sql,
+			int capacity, long ttl, TimeUnit unit) {
+		regions.put(beanClass, new Region<T>(beanClass, normalizeTable(table),
+				sql, capacity, unit.toNanos(ttl)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Region<T> getRegion(Class<T> beanClass) {
+		Region<T> region = (Region<T>) regions.get(beanClass);
+		if (region == null)
+			throw new IllegalArgumentException("Class not registered: "
+					+ beanClass.getName());
+		return region;
+	}
+
+	/**
+	 * Return the POJO from the cache, or load it.
+	 *
+	 * @param beanClass
+	 *            a registered class
+	 * @param id
+	 *            the primary key
+	 * @return the POJO, or null if not found
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public <T> T find(Class<T> beanClass, Object id) throws Exception {
+		return getRegion(beanClass).find(BatchLoader.normalize(id));
+	}
+
+	/**
+	 * Remove one POJO from the cache
+	 *
+	 * @param beanClass
+	 *            a registered class
+	 * @param id
+	 *            the primary key
+	 */
+	public void invalidate(Class<?> beanClass, Object id) {
+		getRegion(beanClass).invalidate(BatchLoader.normalize(id));
+	}
+
+	/**
+	 * Remove every POJO of a class from the cache
+	 *
+	 * @param beanClass
+	 *            a registered class
+	 */
+	public void invalidateAll(Class<?> beanClass) {
+		getRegion(beanClass).invalidateAll();
+	}
+
+	/**
+	 * Remove the POJO of every class mapped to the table
+	 *
+	 * @param table
+	 *            the name of the table
+	 */
+	public void invalidateTable(String table) {
+		table = normalizeTable(table);
+		for (Region<?> region : regions.values())
+			if (region.table.equals(table))
+				region.invalidateAll();
+	}
+
+	/**
+	 * @param beanClass
+	 *            a registered class
+	 * @return the number of POJO in the cache
+	 */
+	public int size(Class<?> beanClass) {
+		return getRegion(beanClass).size();
+	}
+
+	/**
+	 * @return the number of find calls served by the cache
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of find calls not served by the cache
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of queries executed
+	 */
+	public long getLoadCount() {
+		return loadCount.get();
+	}
+
+	private static String normalizeTable(String table) {
+		table = table.replaceAll("[\"`\\[\\]]", "").toLowerCase();
+		return table.substring(table.lastIndexOf('.') + 1);
+	}
+
+	/**
+	 * @param sql
+	 *            an INSERT/UPDATE/DELETE statement
+	 * @return the normalized name of the modified table, or null
+	 */
+	static String getWrittenTable(String sql) {
+		if (sql == null)
+			return null;
+		Matcher matcher = WRITE_PATTERN.matcher(sql);
+		return matcher.find() ? normalizeTable(matcher.group(1)) : null;
+	}
+
+	/**
+	 * Invalidate the regions of the given tables
+	 *
+	 * @param tables
+	 *            the normalized names of the modified tables
+	 */
+	void invalidateTables(Iterable<String> tables) {
+		for (String table : tables)
+			for (Region<?> region : regions.values())
+				if (region.table.equals(table))
+					region.invalidateAll();
+	}
+}
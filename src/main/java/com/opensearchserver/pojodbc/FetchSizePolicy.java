@@ -0,0 +1,274 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Choose the fetch size of each query from the observed width of its rows.
+ * <p>
+ * The policy keeps, for each SQL statement, a moving average of the estimated
+ * bytes per row. The fetch size is the memory budget divided by that average,
+ * bounded by a minimum and a maximum. During a long scan, the fetch size is
+ * adjusted each time a fetch has been consumed.
+ * </p>
+ * <p>
+ * The policy is shared by the transactions of a ConnectionManager:
+ * </p>
+ *
+ * <pre>
+ * connectionManager.setFetchSizePolicy(new FetchSizePolicy(4 * 1024 * 1024));
+ * </pre>
+ */
+public class FetchSizePolicy {
+
+	/**
+	 * The values observed for one SQL statement
+	 */
+	public static class Statistics {
+
+		private volatile double bytesPerRow;
+		private volatile int fetchSize;
+		private volatile long executions;
+		private volatile long rows;
+		private volatile long adjustments;
+
+		private Statistics() {
+			bytesPerRow = 0;
+			fetchSize = 0;
+		}
+
+		private Statistics(Statistics stats) {
+			bytesPerRow = stats.bytesPerRow;
+			fetchSize = stats.fetchSize;
+			executions = stats.executions;
+			rows = stats.rows;
+			adjustments = stats.adjustments;
+		}
+
+		/**
+		 * @return the average estimated size of a row in bytes
+		 */
+		public double getBytesPerRow() {
+			return bytesPerRow;
+		}
+
+		/**
+		 * @return the last fetch size chosen
+		 */
+		public int getFetchSize() {
+			return fetchSize;
+		}
+
+		public long getExecutions() {
+			return executions;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the number of fetch size changes during scans
+		 */
+		public long getAdjustments() {
+			return adjustments;
+		}
+
+		@Override
+		public String toString() {
+			return "bytesPerRow: " + Math.round(bytesPerRow) + " fetchSize: "
+					+ fetchSize + " executions: " + executions + " rows: "
+					+ rows + " adjustments: " + adjustments;
+		}
+	}
+
+	/**
+	 * Follow the rows of one execution
+	 */
+	class Scan {
+
+		private final Statistics stats;
+		private final int maxResults;
+		private int fetchSize;
+		private int rowsInFetch;
+		private long bytesInFetch;
+
+		private Scan(Statistics stats, int maxResults) {
+			this.stats = stats;
+			this.maxResults = maxResults;
+			this.fetchSize = computeFetchSize(stats.bytesPerRow, maxResults);
+			this.rowsInFetch = 0;
+			this.bytesInFetch = 0;
+			synchronized (stats) {
+				stats.executions++;
+				stats.fetchSize = fetchSize;
+			}
+		}
+
+		int getFetchSize() {
+			return fetchSize;
+		}
+
+		/**
+		 * Record a row.
+		 *
+		 * @param bytes
+		 *            the estimated size of the row
+		 * @return the new fetch size, or 0 if it is unchanged
+		 */
+		int rowFetched(long bytes) {
+			bytesInFetch += bytes;
+			if (++rowsInFetch < fetchSize)
+				return 0;
+			double average = (double) bytesInFetch / rowsInFetch;
+			int newFetchSize;
+			synchronized (stats) {
+				stats.rows += rowsInFetch;
+				stats.bytesPerRow = stats.bytesPerRow == 0 ? average
+						: stats.bytesPerRow * (1 - SMOOTHING) + average
+								* SMOOTHING;
+				newFetchSize = computeFetchSize(stats.bytesPerRow, maxResults);
+				if (newFetchSize != fetchSize) {
+					stats.adjustments++;
+					stats.fetchSize = newFetchSize;
+				}
+			}
+			rowsInFetch = 0;
+			bytesInFetch = 0;
+			if (newFetchSize == fetchSize)
+				return 0;
+			fetchSize = newFetchSize;
+			return fetchSize;
+		}
+
+		/**
+		 * Record the last partial fetch
+		 */
+		void end() {
+			if (rowsInFetch == 0)
+				return;
+			double average = (double) bytesInFetch / rowsInFetch;
+			synchronized (stats) {
+				stats.rows += rowsInFetch;
+				// A partial fetch is a smaller sample: its weight is reduced
+				double weight = SMOOTHING * rowsInFetch / fetchSize;
+				stats.bytesPerRow = stats.bytesPerRow == 0 ? average
+						: stats.bytesPerRow * (1 - weight) + average * weight;
+			}
+			rowsInFetch = 0;
+		}
+	}
+
+	private final static double SMOOTHING = 0.3;
+
+	private final static int MAX_STATEMENTS = 1000;
+
+	private final long memoryBudget;
+	private int minFetchSize;
+	private int maxFetchSize;
+	private int defaultFetchSize;
+	private final ConcurrentHashMap<String, Statistics> statisticsMap;
+
+	/**
+	 * @param memoryBudget
+	 *            the estimated heap size (in bytes) of one fetch
+	 */
+	public FetchSizePolicy(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		this.minFetchSize = 10;
+		this.maxFetchSize = 10000;
+		this.defaultFetchSize = 100;
+		this.statisticsMap = new ConcurrentHashMap<String, Statistics>();
+	}
+
+	/**
+	 * @param minFetchSize
+	 *            the smallest fetch size (default is 10)
+	 */
+	public void setMinFetchSize(int minFetchSize) {
+		this.minFetchSize = minFetchSize;
+	}
+
+	/**
+	 * @param maxFetchSize
+	 *            the largest fetch size (default is 10000)
+	 */
+	public void setMaxFetchSize(int maxFetchSize) {
+		this.maxFetchSize = maxFetchSize;
+	}
+
+	/**
+	 * @param defaultFetchSize
+	 *            the fetch size used for an unknown statement (default is 100)
+	 */
+	public void setDefaultFetchSize(int defaultFetchSize) {
+		this.defaultFetchSize = defaultFetchSize;
+	}
+
+	private int computeFetchSize(double bytesPerRow, int maxResults) {
+		long fetchSize = bytesPerRow == 0 ? defaultFetchSize : Math
+				.round(memoryBudget / bytesPerRow);
+		fetchSize = Math.max(minFetchSize, Math.min(maxFetchSize, fetchSize));
+		if (maxResults > 0)
+			fetchSize = Math.min(fetchSize, maxResults);
+		return (int) Math.max(1, fetchSize);
+	}
+
+	Scan begin(String sql, int maxResults) {
+		Statistics stats = statisticsMap.get(sql);
+		if (stats == null) {
+			if (statisticsMap.size() >= MAX_STATEMENTS)
+				statisticsMap.clear();
+			Statistics newStats = new Statistics();
+			stats = statisticsMap.putIfAbsent(sql, newStats);
+			if (stats == null)
+				stats = newStats;
+		}
+		return new Scan(stats, maxResults);
+	}
+
+	/**
+	 * @param sql
+	 *            the SQL statement
+	 * @return a copy of the statistics for that statement, or null
+	 */
+	public Statistics getStatistics(String sql) {
+		Statistics stats = statisticsMap.get(sql);
+		if (stats == null)
+			return null;
+		synchronized (stats) {
+			return new Statistics(stats);
+		}
+	}
+
+	/**
+	 * @return a copy of the statistics of every statement
+	 */
+	public Map<String, Statistics> getStatistics() {
+		Map<String, Statistics> map = new HashMap<String, Statistics>();
+		for (Map.Entry<String, Statistics> entry : statisticsMap.entrySet())
+			synchronized (entry.getValue()) {
+				map.put(entry.getKey(), new Statistics(entry.getValue()));
+			}
+		return map;
+	}
+}
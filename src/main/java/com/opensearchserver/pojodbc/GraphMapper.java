@@ -0,0 +1,342 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.beans.Beans;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Map the result of a JOIN to a graph of POJO in a single pass.
+ * <p>
+ * Each node of the graph is a bean class associated to a column prefix. The
+ * columns starting with the prefix are mapped to the properties of the bean
+ * (the prefix is removed). The key columns identify a bean: the rows
+ * repeating the same key are mapped to the same instance (identity map), and
+ * a child is added only once to the collection of its parent. When every key
+ * column of a child is NULL (LEFT JOIN without match), no child is created.
+ * </p>
+ *
+ * <pre>
+ * GraphMapper&lt;Order&gt; mapper = new GraphMapper&lt;Order&gt;(Order.class,
+ * 		&quot;o_&quot;, &quot;id&quot;);
+ * mapper.getRoot().addChild(&quot;lines&quot;, OrderLine.class, &quot;l_&quot;, &quot;id&quot;);
+ * Query query = transaction.prepare(&quot;SELECT o.id AS o_id, o.date AS o_date, &quot;
+ * 		+ &quot;l.id AS l_id, l.product AS l_product FROM orders o &quot;
+ * 		+ &quot;LEFT JOIN order_line l ON l.order_id=o.id ORDER BY o.id&quot;);
+ * List&lt;Order&gt; orders = query.getResultList(mapper);
+ * </pre>
+ * <p>
+ * The maxResults parameter of the Query limits the number of rows, not the
+ * number of root beans. A GraphMapper is not thread safe.
+ * </p>
+ *
+ * @param <T>
+ *            the class of the root beans
+ */
+public class GraphMapper<T> {
+
+	static protected Logger logger = Logger.getLogger(GraphMapper.class
+			.getCanonicalName());
+
+	/**
+	 * A bean class in the graph
+	 */
+	public static class Node {
+
+		private final Class<?> beanClass;
+		private final String prefix;
+		private final String[] keyProperties;
+		private final List<Node> children;
+		private final Method collectionGetter;
+		private final Method collectionSetter;
+		private final Class<?> collectionType;
+		private final Map<String, PropertyDescriptor> properties;
+
+		private int[] keyColumns;
+		private int[] columns;
+		private Method[] setters;
+
+		private Node(Class<?> beanClass, String prefix, String[] keyProperties,
+				PropertyDescriptor collectionProperty)
+				throws IntrospectionException {
+			this.beanClass = beanClass;
+			this.prefix = prefix.toLowerCase();
+			this.keyProperties = keyProperties;
+			this.children = new ArrayList<Node>();
+			this.properties = new HashMap<String, PropertyDescriptor>();
+			for (PropertyDescriptor propDesc : Introspector.getBeanInfo(
+					beanClass).getPropertyDescriptors())
+				properties.put(propDesc.getName().toLowerCase(), propDesc);
+			if (collectionProperty == null) {
+				collectionGetter = null;
+				collectionSetter = null;
+				collectionType = null;
+			} else {
+				collectionGetter = collectionProperty.getReadMethod();
+				collectionSetter = collectionProperty.getWriteMethod();
+				collectionType = collectionProperty.getPropertyType();
+				if (collectionGetter == null
+						|| !Collection.class.isAssignableFrom(collectionType))
+					throw new IntrospectionException("The property "
+							+ collectionProperty.getName()
+							+ " is not a readable collection");
+			}
+		}
+
+		/**
+		 * Add a one-to-many relation.
+		 *
+		 * @param property
+		 *            the name of the collection property of this node
+		 *            (List, Set or Collection)
+		 * @param childClass
+		 *            the class of the child beans
+		 * @param childPrefix
+		 *            the prefix of the columns of the child
+		 * @param childKeyProperties
+		 *            the properties identifying a child
+		 * @return the new child node
+		 * @throws IntrospectionException
+		 *             if the property is not a collection
+		 */
+		public Node addChild(String property, Class<?> childClass,
+				String childPrefix, String... childKeyProperties)
+				throws IntrospectionException {
+			PropertyDescriptor propDesc = properties.get(property
+					.toLowerCase());
+			if (propDesc == null)
+				throw new IntrospectionException("No property " + property
+						+ " in " + beanClass.getName());
+			Node child = new Node(childClass, childPrefix, childKeyProperties,
+					propDesc);
+			children.add(child);
+			return child;
+		}
+
+		private void resolve(ResultSetMetaData metaData) throws SQLException {
+			int columnCount = metaData.getColumnCount();
+			List<Integer> columnList = new ArrayList<Integer>();
+			List<Method> setterList = new ArrayList<Method>();
+			keyColumns = new int[keyProperties.length];
+			for (int i = 1; i <= columnCount; i++) {
+				String label = metaData.getColumnLabel(i).toLowerCase();
+				if (!label.startsWith(prefix))
+					continue;
+				String name = label.substring(prefix.length());
+				for (int k = 0; k < keyProperties.length; k++)
+					if (keyProperties[k].equalsIgnoreCase(name))
+						keyColumns[k] = i;
+				PropertyDescriptor propDesc = properties.get(name);
+				if (propDesc == null || propDesc.getWriteMethod() == null)
+					continue;
+				columnList.add(i);
+				setterList.add(propDesc.getWriteMethod());
+				if (logger.isLoggable(Level.FINEST))
+					logger.finest("Found property \"" + propDesc.getName()
+							+ "\" for column name \"" + label + "\"");
+			}
+			for (int k = 0; k < keyColumns.length; k++)
+				if (keyColumns[k] == 0)
+					throw new SQLException("No column " + prefix
+							+ keyProperties[k] + " for the key of "
+							+ beanClass.getSimpleName());
+			columns = new int[columnList.size()];
+			setters = setterList.toArray(new Method[setterList.size()]);
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = columnList.get(i);
+			for (Node child : children)
+				child.resolve(metaData);
+		}
+
+		private List<Object> readKey(ResultSet resultSet) throws SQLException {
+			Object[] key = new Object[keyColumns.length];
+			boolean allNull = true;
+			for (int k = 0; k < keyColumns.length; k++) {
+				key[k] = resultSet.getObject(keyColumns[k]);
+				if (key[k] != null)
+					allNull = false;
+			}
+			return allNull ? null : Arrays.asList(key);
+		}
+
+		private Object newBean(ResultSet resultSet) throws Exception {
+			Object bean = Beans.instantiate(beanClass.getClassLoader(),
+					beanClass.getCanonicalName());
+			for (int i = 0; i < columns.length; i++) {
+				Object colObject = resultSet.getObject(columns[i]);
+				try {
+					if (colObject != null)
+						setters[i].invoke(bean, colObject);
+				} catch (Exception e) {
+					throw new Exception("Error on column "
+							+ columns[i]
+							+ " method "
+							+ setters[i].getName()
+							+ " object class is "
+							+ colObject.getClass().getName(), e);
+				}
+			}
+			return bean;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Collection<Object> getCollection(Object parent)
+				throws Exception {
+			Collection<Object> collection = (Collection<Object>)
+					collectionGetter.invoke(parent);
+			if (collection != null)
+				return collection;
+			if (collectionSetter == null)
+				throw new Exception("The collection "
+						+ collectionGetter.getName()
+						+ " is null and has no setter");
+			if (Set.class.isAssignableFrom(collectionType))
+				collection = new LinkedHashSet<Object>();
+			else
+				collection = new ArrayList<Object>();
+			collectionSetter.invoke(parent, collection);
+			return collection;
+		}
+	}
+
+	/**
+	 * The state of one mapping: the identity maps of each node
+	 */
+	private static class Identities {
+
+		private final Map<Node, Map<List<Object>, Object>> beans;
+		private final IdentityHashMap<Object, Set<List<Object>>> attached;
+
+		private Identities() {
+			beans = new HashMap<Node, Map<List<Object>, Object>>();
+			attached = new IdentityHashMap<Object, Set<List<Object>>>();
+		}
+
+		private Map<List<Object>, Object> get(Node node) {
+			Map<List<Object>, Object> map = beans.get(node);
+			if (map == null) {
+				map = new HashMap<List<Object>, Object>();
+				beans.put(node, map);
+			}
+			return map;
+		}
+
+		private boolean attach(Object parent, Node child, List<Object> childKey) {
+			Set<List<Object>> keys = attached.get(parent);
+			if (keys == null) {
+				keys = new HashSet<List<Object>>();
+				attached.put(parent, keys);
+			}
+			return keys.add(Arrays.<Object> asList(child, childKey));
+		}
+	}
+
+	private final Node root;
+
+	/**
+	 * @param rootClass
+	 *            the class of the root beans
+	 * @param prefix
+	 *            the prefix of the columns of the root beans
+	 * @param keyProperties
+	 *            the properties identifying a root bean
+	 * @throws IntrospectionException
+	 *             if the class cannot be introspected
+	 */
+	public GraphMapper(Class<T> rootClass, String prefix,
+			String... keyProperties) throws IntrospectionException {
+		root = new Node(rootClass, prefix, keyProperties, null);
+	}
+
+	/**
+	 * @return the root node, used to add the children
+	 */
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Map the remaining rows of the ResultSet.
+	 *
+	 * @param resultSet
+	 *            the ResultSet to read
+	 * @param limit
+	 *            the maximum number of rows read, or -1
+	 * @return the list of root beans, in the order of their first row
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	List<T> map(ResultSet resultSet, int limit) throws Exception {
+		root.resolve(resultSet.getMetaData());
+		Identities identities = new Identities();
+		List<T> list = new ArrayList<T>();
+		Map<List<Object>, Object> roots = identities.get(root);
+		while (resultSet.next() && limit-- != 0) {
+			List<Object> key = root.readKey(resultSet);
+			if (key == null)
+				continue;
+			Object bean = roots.get(key);
+			if (bean == null) {
+				bean = root.newBean(resultSet);
+				roots.put(key, bean);
+				@SuppressWarnings("unchecked")
+				T t = (T) bean;
+				list.add(t);
+			}
+			mapChildren(root, bean, resultSet, identities);
+		}
+		return list;
+	}
+
+	private void mapChildren(Node node, Object parent, ResultSet resultSet,
+			Identities identities) throws Exception {
+		for (Node child : node.children) {
+			List<Object> key = child.readKey(resultSet);
+			if (key == null)
+				continue;
+			Map<List<Object>, Object> beans = identities.get(child);
+			Object bean = beans.get(key);
+			if (bean == null) {
+				bean = child.newBean(resultSet);
+				beans.put(key, bean);
+			}
+			if (identities.attach(parent, child, key))
+				child.getCollection(parent).add(bean);
+			mapChildren(child, bean, resultSet, identities);
+		}
+	}
+}
@@ -0,0 +1,411 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+
+/**
+ * Coalesce many small write transactions into shared commits.
+ * <p>
+ * The write units are queued and executed by a single background thread on
+ * one connection. The units are committed together every maxGroupSize units
+ * or after maxDelay milliseconds. Each unit runs inside its own savepoint: a
+ * failing unit is rolled back to its savepoint and its future reports the
+ * error, without affecting the other units of the group. The future of a
+ * successful unit completes only when the group is committed. A unit can be
+ * cancelled only while it is queued.
+ * </p>
+ * <p>
+ * If the background thread stops unexpectedly, the writer is closed and the
+ * pending futures fail.
+ * </p>
+ *
+ * <pre>
+ * GroupCommitWriter writer = new GroupCommitWriter(connectionManager, null);
+ * Future&lt;Integer&gt; future = writer.submit(new GroupCommitWriter.WriteUnit&lt;Integer&gt;() {
+ * 	public Integer execute(Transaction transaction) throws Exception {
+ * 		return transaction.update(&quot;INSERT INTO event VALUES (1, 'start')&quot;);
+ * 	}
+ * });
+ * future.get(); // Committed
+ * writer.close();
+ * </pre>
+ */
+public class GroupCommitWriter implements Closeable {
+
+	static protected Logger logger = Logger.getLogger(GroupCommitWriter.class
+			.getCanonicalName());
+
+	/**
+	 * A write operation executed in the shared transaction. The unit must not
+	 * commit, roll back or close the transaction.
+	 *
+	 * @param <V>
+	 *            the type of the result
+	 */
+	public interface WriteUnit<V> {
+
+		V execute(Transaction transaction) throws Exception;
+	}
+
+	private static class UnitFuture<V> implements Future<V> {
+
+		private final static int QUEUED = 0;
+		private final static int STARTED = 1;
+		private final static int DONE = 2;
+		private final static int CANCELLED = 3;
+
+		private final WriteUnit<V> unit;
+		private final CountDownLatch done;
+		private int state;
+		private V result;
+		private Throwable exception;
+
+		private UnitFuture(WriteUnit<V> unit) {
+			this.unit = unit;
+			this.done = new CountDownLatch(1);
+			this.state = QUEUED;
+		}
+
+		/**
+		 * @return false if the unit has been cancelled
+		 */
+		private synchronized boolean start() {
+			if (state != QUEUED)
+				return false;
+			state = STARTED;
+			return true;
+		}
+
+		private void execute(Transaction transaction) throws Exception {
+			result = unit.execute(transaction);
+		}
+
+		private void succeed() {
+			synchronized (this) {
+				if (state == DONE || state == CANCELLED)
+					return;
+				state = DONE;
+			}
+			done.countDown();
+		}
+
+		private void fail(Throwable t) {
+			synchronized (this) {
+				if (state == DONE || state == CANCELLED)
+					return;
+				state = DONE;
+				result = null;
+				exception = t;
+			}
+			done.countDown();
+		}
+
+		/**
+		 * A started unit cannot be cancelled: its future reports whether it
+		 * has been committed.
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized (this) {
+				if (state != QUEUED)
+					return false;
+				state = CANCELLED;
+			}
+			done.countDown();
+			return true;
+		}
+
+		@Override
+		public synchronized boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		private synchronized V report() throws ExecutionException {
+			if (state == CANCELLED)
+				throw new CancellationException();
+			if (exception != null)
+				throw new ExecutionException(exception);
+			return result;
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			done.await();
+			return report();
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException,
+				ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return report();
+		}
+	}
+
+	private final static UnitFuture<Object> STOP = new UnitFuture<Object>(null);
+
+	private final ConnectionManager connectionManager;
+	private final Integer transactionIsolation;
+	private final LinkedBlockingQueue<UnitFuture<?>> queue;
+	private final Thread committer;
+	private final AtomicLong commitCount;
+	private final AtomicLong unitCount;
+	private volatile int maxGroupSize;
+	private volatile long maxDelay;
+	private boolean closed;
+	private Transaction transaction;
+
+	/**
+	 * Create the writer and start its background thread.
+	 *
+	 * @param connectionManager
+	 *            provides the connection of the writer
+	 * @param transactionIsolation
+	 *            java.sql.Connection.TRANSACTION..., or null
+	 */
+	public GroupCommitWriter(ConnectionManager connectionManager,
+			Integer transactionIsolation) {
+		this.connectionManager = connectionManager;
+		this.transactionIsolation = transactionIsolation;
+		this.queue = new LinkedBlockingQueue<UnitFuture<?>>();
+		this.commitCount = new AtomicLong();
+		this.unitCount = new AtomicLong();
+		this.maxGroupSize = 100;
+		this.maxDelay = 10;
+		this.closed = false;
+		this.transaction = null;
+		this.committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runCommitter();
+			}
+		}, "pojodbc-group-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * @param maxGroupSize
+	 *            the maximum number of units per commit (default is 100)
+	 */
+	public void setMaxGroupSize(int maxGroupSize) {
+		this.maxGroupSize = maxGroupSize;
+	}
+
+	/**
+	 * @param maxDelay
+	 *            the maximum time in milliseconds a unit waits for other
+	 *            units before the commit (default is 10)
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Queue a write unit.
+	 *
+	 * @param unit
+	 *            the write operation
+	 * @return a future returning the result of the unit once committed
+	 * @throws RejectedExecutionException
+	 *             if the writer is closed
+	 */
+	public <V> Future<V> submit(WriteUnit<V> unit) {
+		UnitFuture<V> future = new UnitFuture<V>(unit);
+		synchronized (this) {
+			if (closed)
+				throw new RejectedExecutionException("The writer is closed");
+			queue.add(future);
+		}
+		return future;
+	}
+
+	/**
+	 * @return the number of commits done
+	 */
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+
+	/**
+	 * @return the number of units committed
+	 */
+	public long getUnitCount() {
+		return unitCount.get();
+	}
+
+	private void runCommitter() {
+		List<UnitFuture<?>> group = new ArrayList<UnitFuture<?>>();
+		try {
+			boolean stop = false;
+			while (!stop) {
+				UnitFuture<?> future = queue.take();
+				if (future == STOP)
+					break;
+				group.add(future);
+				long deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(maxDelay);
+				while (group.size() < maxGroupSize) {
+					long wait = deadline - System.nanoTime();
+					future = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS)
+							: queue.poll();
+					if (future == null)
+						break;
+					if (future == STOP) {
+						stop = true;
+						break;
+					}
+					group.add(future);
+				}
+				commitGroup(group);
+				group.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stopped(group, e);
+		} catch (Throwable t) {
+			logger.log(Level.SEVERE, "Group commit thread stopped", t);
+			stopped(group, t);
+		} finally {
+			closeTransaction();
+		}
+	}
+
+	/**
+	 * Close the writer and fail the pending units
+	 */
+	private void stopped(List<UnitFuture<?>> group, Throwable t) {
+		List<UnitFuture<?>> remaining = new ArrayList<UnitFuture<?>>();
+		synchronized (this) {
+			closed = true;
+			queue.drainTo(remaining);
+		}
+		failAll(group, t);
+		failAll(remaining, t);
+	}
+
+	private static void failAll(List<UnitFuture<?>> group, Throwable t) {
+		for (UnitFuture<?> future : group)
+			if (future != STOP)
+				future.fail(t);
+	}
+
+	private void commitGroup(List<UnitFuture<?>> group) {
+		List<UnitFuture<?>> executed = new ArrayList<UnitFuture<?>>(
+				group.size());
+		boolean started = false;
+		try {
+			if (transaction == null)
+				transaction = connectionManager.getNewTransaction(false,
+						transactionIsolation);
+			for (UnitFuture<?> future : group) {
+				if (!future.start())
+					continue;
+				started = true;
+				Savepoint savepoint = transaction.setSavepoint();
+				try {
+					future.execute(transaction);
+				} catch (Throwable t) {
+					transaction.rollback(savepoint);
+					future.fail(t);
+					continue;
+				}
+				release(savepoint);
+				executed.add(future);
+			}
+			if (!started)
+				return;
+			transaction.commit();
+			transaction.closeQueries();
+		} catch (Throwable t) {
+			logger.log(Level.WARNING, "Group commit failed", t);
+			for (UnitFuture<?> future : group)
+				future.fail(t);
+			closeTransaction();
+			return;
+		}
+		commitCount.incrementAndGet();
+		unitCount.addAndGet(executed.size());
+		for (UnitFuture<?> future : executed)
+			future.succeed();
+	}
+
+	private void release(Savepoint savepoint) throws SQLException {
+		try {
+			transaction.releaseSavepoint(savepoint);
+		} catch (SQLFeatureNotSupportedException e) {
+			// Released by the commit
+		}
+	}
+
+	private void closeTransaction() {
+		if (transaction == null)
+			return;
+		try {
+			transaction.rollback();
+		} catch (SQLException e) {
+			logger.log(Level.WARNING, e.getMessage(), e);
+		}
+		transaction.close();
+		transaction = null;
+	}
+
+	/**
+	 * Commit the queued units and stop the background thread.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			queue.add(STOP);
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,682 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A lazy handle on a LOB column (BLOB, CLOB, BYTEA, LONGVARBINARY, ...).
+ * <p>
+ * The content is not materialized when the row is fetched. Depending on the
+ * spill threshold given by the Query, the handle keeps one of:
+ * </p>
+ * <ul>
+ * <li>the JDBC locator (Blob or Clob). The transaction must remain open while
+ * the content is read.</li>
+ * <li>a small in-heap copy, when the LOB is smaller than the threshold.</li>
+ * <li>a temporary file, read back through a memory-mapped FileChannel, when the
+ * LOB is larger than the threshold.</li>
+ * </ul>
+ * <p>
+ * The columns without locator (BYTEA, LONGVARBINARY, TEXT, ...) can only be
+ * read on the current row: they are copied in memory up to MAX_HEAP_COPY
+ * bytes (or the spill threshold if set), and written in a temporary file
+ * above.
+ * </p>
+ * <p>
+ * Bean properties typed as LobHandle, InputStream, Reader or
+ * ReadableByteChannel are populated with a LobHandle (or a stream opened on
+ * it) instead of the result of ResultSet.getObject(). Closing a stream
+ * closes its handle. The handles are closed when the Transaction is closed.
+ * </p>
+ *
+ */
+public class LobHandle implements Closeable {
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static int BUFFER_SIZE = 8192;
+
+	/**
+	 * The size above which a LOB without locator is written in a temporary
+	 * file when no spill threshold is set
+	 */
+	public final static long MAX_HEAP_COPY = 65536;
+
+	static protected Logger logger = Logger.getLogger(LobHandle.class
+			.getCanonicalName());
+
+	private final boolean character;
+	private Blob blob;
+	private Clob clob;
+	private byte[] bytes;
+	private String text;
+	private File file;
+	private long length;
+
+	private LobHandle(boolean character) {
+		this.character = character;
+		this.length = -1;
+	}
+
+	/**
+	 * Build a handle on a binary content already in memory
+	 */
+	static LobHandle of(byte[] bytes) {
+		LobHandle handle = new LobHandle(false);
+		handle.bytes = bytes;
+		handle.length = bytes.length;
+		return handle;
+	}
+
+	/**
+	 * Build a handle on a character content already in memory
+	 */
+	static LobHandle of(String text) {
+		LobHandle handle = new LobHandle(true);
+		handle.text = text;
+		handle.length = text.length();
+		return handle;
+	}
+
+	/**
+	 * @param sqlType
+	 *            a java.sql.Types constant
+	 * @return true if the column type is handled as a LOB
+	 */
+	public static boolean isLob(int sqlType) {
+		return isBinaryLob(sqlType) || isCharacterLob(sqlType);
+	}
+
+	static boolean isBinaryLob(int sqlType) {
+		switch (sqlType) {
+		case Types.BLOB:
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	static boolean isCharacterLob(int sqlType) {
+		switch (sqlType) {
+		case Types.CLOB:
+		case Types.NCLOB:
+		case Types.LONGVARCHAR:
+		case Types.LONGNVARCHAR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param type
+	 *            the type of a bean property
+	 * @return true if the property expects a streamed access to the column
+	 */
+	static boolean isStreamedType(Class<?> type) {
+		return type == LobHandle.class || type == InputStream.class
+				|| type == Reader.class || type == ReadableByteChannel.class;
+	}
+
+	/**
+	 * Build a LobHandle for the current row of the ResultSet.
+	 *
+	 * @param resultSet
+	 *            the ResultSet positioned on the row
+	 * @param columnIndex
+	 *            the index of the column (starting at 1)
+	 * @param sqlType
+	 *            the java.sql.Types of the column
+	 * @param spillThreshold
+	 *            -1 to keep the JDBC locator, otherwise the size (in bytes)
+	 *            above which the content is written in a temporary file
+	 * @return a new LobHandle, or null if the column is SQL NULL
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the temporary file cannot be written
+	 */
+	static LobHandle read(ResultSet resultSet, int columnIndex, int sqlType,
+			long spillThreshold) throws SQLException, IOException {
+		boolean character = isCharacterLob(sqlType);
+		LobHandle handle = new LobHandle(character);
+		switch (sqlType) {
+		case Types.BLOB:
+			handle.blob = resultSet.getBlob(columnIndex);
+			if (handle.blob == null)
+				return null;
+			if (spillThreshold >= 0)
+				handle.detach(spillThreshold);
+			return handle;
+		case Types.CLOB:
+		case Types.NCLOB:
+			handle.clob = resultSet.getClob(columnIndex);
+			if (handle.clob == null)
+				return null;
+			if (spillThreshold >= 0)
+				handle.detach(spillThreshold);
+			return handle;
+		default:
+			break;
+		}
+		// No locator available (BYTEA, LONGVARBINARY, TEXT, ...): the stream is
+		// only valid on the current row, the content has to be copied.
+		long threshold = spillThreshold < 0 ? MAX_HEAP_COPY : spillThreshold;
+		if (character) {
+			Reader reader = resultSet.getCharacterStream(columnIndex);
+			if (reader == null)
+				return null;
+			try {
+				handle.copy(reader, threshold);
+			} finally {
+				reader.close();
+			}
+		} else {
+			InputStream input = resultSet.getBinaryStream(columnIndex);
+			if (input == null)
+				return null;
+			try {
+				handle.copy(input, threshold);
+			} finally {
+				input.close();
+			}
+		}
+		return handle;
+	}
+
+	private void detach(long threshold) throws SQLException, IOException {
+		if (blob != null) {
+			try (InputStream input = blob.getBinaryStream()) {
+				copy(input, threshold);
+			}
+			free();
+		} else if (clob != null) {
+			try (Reader reader = clob.getCharacterStream()) {
+				copy(reader, threshold);
+			}
+			free();
+		}
+	}
+
+	private void copy(InputStream input, long threshold) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] b = new byte[BUFFER_SIZE];
+		int l;
+		while ((l = input.read(b)) != -1) {
+			buffer.write(b, 0, l);
+			if (buffer.size() > threshold) {
+				spill(buffer.toByteArray(), input);
+				return;
+			}
+		}
+		bytes = buffer.toByteArray();
+		length = bytes.length;
+	}
+
+	private void copy(Reader reader, long threshold) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] c = new char[BUFFER_SIZE];
+		int l;
+		while ((l = reader.read(c)) != -1) {
+			sb.append(c, 0, l);
+			if (sb.length() > threshold) {
+				spill(sb, reader);
+				return;
+			}
+		}
+		text = sb.toString();
+		length = text.length();
+	}
+
+	private void spill(byte[] head, InputStream input) throws IOException {
+		File spillFile = createTempFile();
+		try (OutputStream output = new FileOutputStream(spillFile)) {
+			output.write(head);
+			length = head.length;
+			byte[] b = new byte[BUFFER_SIZE];
+			int l;
+			while ((l = input.read(b)) != -1) {
+				output.write(b, 0, l);
+				length += l;
+			}
+		} catch (IOException | RuntimeException e) {
+			delete(spillFile);
+			throw e;
+		}
+		file = spillFile;
+	}
+
+	private void spill(CharSequence head, Reader reader) throws IOException {
+		File spillFile = createTempFile();
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(
+				spillFile), UTF8)) {
+			writer.append(head);
+			length = head.length();
+			char[] c = new char[BUFFER_SIZE];
+			int l;
+			while ((l = reader.read(c)) != -1) {
+				writer.write(c, 0, l);
+				length += l;
+			}
+		} catch (IOException | RuntimeException e) {
+			delete(spillFile);
+			throw e;
+		}
+		file = spillFile;
+	}
+
+	private static void delete(File file) {
+		if (!file.delete())
+			logger.warning("Cannot delete " + file);
+	}
+
+	private static File createTempFile() throws IOException {
+		File file = File.createTempFile("pojodbc-lob", ".tmp");
+		if (logger.isLoggable(Level.FINEST))
+			logger.finest("Spill LOB to " + file);
+		return file;
+	}
+
+	private ByteBuffer map() throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			return buffer;
+		}
+	}
+
+	/**
+	 * @return true if the content is a character LOB (CLOB, TEXT, ...)
+	 */
+	public boolean isCharacter() {
+		return character;
+	}
+
+	/**
+	 * @return true if the content has been written in a temporary file
+	 */
+	public boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * @return the length in bytes (binary LOB) or in characters (character
+	 *         LOB)
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public long length() throws SQLException {
+		if (length == -1) {
+			if (blob != null)
+				length = blob.length();
+			else if (clob != null)
+				length = clob.length();
+		}
+		return length;
+	}
+
+	/**
+	 * Open a new binary stream on the content. Character LOBs are encoded in
+	 * UTF-8.
+	 *
+	 * @return a new InputStream
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the temporary file cannot be read
+	 */
+	public InputStream getInputStream() throws SQLException, IOException {
+		if (blob != null)
+			return blob.getBinaryStream();
+		if (clob != null)
+			return new ReaderInputStream(clob.getCharacterStream());
+		if (file != null)
+			return new ByteBufferInputStream(map());
+		if (bytes != null)
+			return new ByteArrayInputStream(bytes);
+		return new ByteArrayInputStream(text.getBytes(UTF8));
+	}
+
+	/**
+	 * Open a new character stream on the content. Binary LOBs are decoded as
+	 * UTF-8.
+	 *
+	 * @return a new Reader
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the temporary file cannot be read
+	 */
+	public Reader getReader() throws SQLException, IOException {
+		if (clob != null)
+			return clob.getCharacterStream();
+		if (text != null)
+			return new StringReader(text);
+		return new InputStreamReader(getInputStream(), UTF8);
+	}
+
+	/**
+	 * Open a new channel on the content. A spilled LOB is read directly from
+	 * the memory-mapped file.
+	 *
+	 * @return a new ReadableByteChannel
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the temporary file cannot be read
+	 */
+	public ReadableByteChannel getChannel() throws SQLException, IOException {
+		if (file == null && bytes != null)
+			return new ByteBufferChannel(ByteBuffer.wrap(bytes));
+		if (file != null && !character)
+			return new ByteBufferChannel(map());
+		return Channels.newChannel(getInputStream());
+	}
+
+	/**
+	 * Read the whole content in memory.
+	 *
+	 * @return the content as a byte array
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the temporary file cannot be read
+	 */
+	public byte[] getBytes() throws SQLException, IOException {
+		if (bytes != null)
+			return bytes;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (InputStream input = getInputStream()) {
+			byte[] b = new byte[BUFFER_SIZE];
+			int l;
+			while ((l = input.read(b)) != -1)
+				output.write(b, 0, l);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Read the whole content in memory.
+	 *
+	 * @return the content as a String
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the temporary file cannot be read
+	 */
+	public String getString() throws SQLException, IOException {
+		if (text != null)
+			return text;
+		StringBuilder sb = new StringBuilder();
+		try (Reader reader = getReader()) {
+			char[] c = new char[BUFFER_SIZE];
+			int l;
+			while ((l = reader.read(c)) != -1)
+				sb.append(c, 0, l);
+		}
+		return sb.toString();
+	}
+
+	private void free() {
+		try {
+			if (blob != null)
+				blob.free();
+			if (clob != null)
+				clob.free();
+		} catch (SQLException e) {
+			logger.log(Level.WARNING, e.getMessage(), e);
+		} catch (AbstractMethodError e) {
+			// JDBC 3 drivers do not implement free()
+		}
+		blob = null;
+		clob = null;
+	}
+
+	/**
+	 * Release the locator and delete the temporary file (if any).
+	 */
+	@Override
+	public void close() {
+		free();
+		if (file != null) {
+			delete(file);
+			file = null;
+		}
+		bytes = null;
+		text = null;
+	}
+
+	/**
+	 * @return the handle, or a stream which closes the handle when it is
+	 *         closed
+	 */
+	Object convert(Class<?> type) throws SQLException, IOException {
+		if (type == InputStream.class)
+			return new FilterInputStream(getInputStream()) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						LobHandle.this.close();
+					}
+				}
+			};
+		if (type == Reader.class)
+			return new FilterReader(getReader()) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						LobHandle.this.close();
+					}
+				}
+			};
+		if (type == ReadableByteChannel.class) {
+			final ReadableByteChannel channel = getChannel();
+			return new ReadableByteChannel() {
+				@Override
+				public int read(ByteBuffer dst) throws IOException {
+					return channel.read(dst);
+				}
+
+				@Override
+				public boolean isOpen() {
+					return channel.isOpen();
+				}
+
+				@Override
+				public void close() throws IOException {
+					try {
+						channel.close();
+					} finally {
+						LobHandle.this.close();
+					}
+				}
+			};
+		}
+		return this;
+	}
+
+	/**
+	 * Encode a character stream in UTF-8
+	 */
+	private static class ReaderInputStream extends InputStream {
+
+		private final Reader reader;
+		private final CharsetEncoder encoder;
+		private final CharBuffer chars;
+		private final ByteBuffer bytes;
+		private boolean eof;
+		private boolean done;
+
+		private ReaderInputStream(Reader reader) {
+			this.reader = reader;
+			this.encoder = UTF8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.chars = CharBuffer.allocate(BUFFER_SIZE);
+			this.bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+			chars.flip();
+			bytes.flip();
+		}
+
+		private boolean fill() throws IOException {
+			if (done)
+				return false;
+			bytes.clear();
+			if (!eof) {
+				chars.compact();
+				if (reader.read(chars) == -1)
+					eof = true;
+				chars.flip();
+			}
+			encoder.encode(chars, bytes, eof);
+			if (eof) {
+				encoder.flush(bytes);
+				done = true;
+			}
+			bytes.flip();
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (!bytes.hasRemaining())
+				if (!fill())
+					return -1;
+			len = Math.min(len, bytes.remaining());
+			bytes.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	private static class ByteBufferChannel implements ReadableByteChannel {
+
+		private final ByteBuffer buffer;
+		private boolean open;
+
+		private ByteBufferChannel(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.open = true;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (!buffer.hasRemaining())
+				return -1;
+			int len = Math.min(dst.remaining(), buffer.remaining());
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(slice.position() + len);
+			dst.put(slice);
+			buffer.position(buffer.position() + len);
+			return len;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+}
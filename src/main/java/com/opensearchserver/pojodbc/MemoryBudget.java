@@ -0,0 +1,122 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the estimated heap size of the result lists of a query.
+ * <p>
+ * The size of the rows is estimated while they are fetched. When the budget
+ * is exceeded, the policy applies: FAIL throws a
+ * MemoryBudgetExceededException, TRUNCATE stops reading and flags the query
+ * (see Query.isTruncated), SPILL builds a SpillList which writes the rows
+ * exceeding the budget to a temporary file. A MemoryBudget can be shared by
+ * several queries; it counts the rejected, truncated and spilled results.
+ * </p>
+ *
+ * <pre>
+ * connectionManager.setMemoryBudget(new MemoryBudget(64 * 1024 * 1024,
+ * 		MemoryBudget.Policy.FAIL));
+ * </pre>
+ */
+public class MemoryBudget {
+
+	public enum Policy {
+
+		/**
+		 * Throw a MemoryBudgetExceededException
+		 */
+		FAIL,
+
+		/**
+		 * Return the rows read so far
+		 */
+		TRUNCATE,
+
+		/**
+		 * Spill the rows exceeding the budget to a temporary file
+		 */
+		SPILL;
+	}
+
+	private final long maxBytes;
+	private final Policy policy;
+	private final AtomicLong rejectedCount;
+	private final AtomicLong truncatedCount;
+	private final AtomicLong spilledCount;
+
+	/**
+	 * @param maxBytes
+	 *            the maximum estimated size of a result list
+	 * @param policy
+	 *            what to do when the budget is exceeded
+	 */
+	public MemoryBudget(long maxBytes, Policy policy) {
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+		this.rejectedCount = new AtomicLong();
+		this.truncatedCount = new AtomicLong();
+		this.spilledCount = new AtomicLong();
+	}
+
+	/**
+	 * @return the maximum estimated size of a result list
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of queries which failed with the FAIL policy
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return the number of results truncated with the TRUNCATE policy
+	 */
+	public long getTruncatedCount() {
+		return truncatedCount.get();
+	}
+
+	/**
+	 * @return the number of results spilled to disk with the SPILL policy
+	 */
+	public long getSpilledCount() {
+		return spilledCount.get();
+	}
+
+	void rejected() {
+		rejectedCount.incrementAndGet();
+	}
+
+	void truncated() {
+		truncatedCount.incrementAndGet();
+	}
+
+	void spilled() {
+		spilledCount.incrementAndGet();
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when the result of a query exceeds its MemoryBudget with the FAIL
+ * policy.
+ */
+public class MemoryBudgetExceededException extends SQLException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long maxBytes;
+	private final int rowCount;
+
+	public MemoryBudgetExceededException(String sql, long maxBytes,
+			int rowCount) {
+		super("The result exceeds the memory budget of " + maxBytes
+				+ " bytes after " + rowCount + " rows: " + sql);
+		this.maxBytes = maxBytes;
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * @return the budget in bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the number of rows read when the budget was exceeded
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+}
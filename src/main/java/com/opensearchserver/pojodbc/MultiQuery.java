@@ -0,0 +1,334 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Several independent statements submitted as one unit.
+ * <p>
+ * When the driver supports multiple results, the statements are joined into
+ * a single PreparedStatement and executed in one round trip. The results are
+ * consumed in order with getMoreResults, and each one is mapped to its own
+ * bean class. Otherwise, the statements are executed sequentially in the same
+ * transaction.
+ * </p>
+ * <p>
+ * The support is detected once per driver and url, before any statement is
+ * executed, by probing a joined statement (in a savepoint when autocommit
+ * is disabled). Only a syntax or feature-not-supported error of the probe
+ * disables the pipelining: once the joined statement is sent, an error is
+ * reported as is, the statements are never executed twice.
+ * </p>
+ * <p>
+ * The statements are closed after the execution. The result lists remain
+ * usable until the transaction is closed, including the SpillList returned
+ * with a memory budget and the streamed LOB properties.
+ * </p>
+ *
+ * <pre>
+ * MultiQuery multi = transaction.prepareMulti();
+ * int users = multi.add(&quot;SELECT * FROM user WHERE id=?&quot;, User.class, userId);
+ * int news = multi.add(&quot;SELECT * FROM news ORDER BY date DESC LIMIT 5&quot;,
+ * 		News.class);
+ * multi.execute();
+ * List&lt;User&gt; userList = multi.getResultList(users, User.class);
+ * List&lt;News&gt; newsList = multi.getResultList(news, News.class);
+ * </pre>
+ */
+public class MultiQuery {
+
+	static protected Logger logger = Logger.getLogger(MultiQuery.class
+			.getCanonicalName());
+
+	/**
+	 * The result of the probe, by driver name and url
+	 */
+	private final static ConcurrentHashMap<String, Boolean> supportedDrivers =
+			new ConcurrentHashMap<String, Boolean>();
+
+	private final static String PROBE_SQL = "SELECT 1;\nSELECT 1";
+
+	private static class Entry {
+
+		private final String sql;
+		private final Class<?> beanClass;
+		private final Object[] parameters;
+		private List<?> resultList;
+		private int updateCount;
+
+		private Entry(String sql, Class<?> beanClass, Object[] parameters) {
+			this.sql = sql;
+			this.beanClass = beanClass;
+			this.parameters = parameters;
+			this.updateCount = -1;
+		}
+	}
+
+	private final Transaction transaction;
+	private final List<Entry> entries;
+	private Boolean pipelined;
+	private boolean lastPipelined;
+
+	/**
+	 * @param transaction
+	 *            the transaction used to execute the statements
+	 */
+	public MultiQuery(Transaction transaction) {
+		this.transaction = transaction;
+		this.entries = new ArrayList<Entry>();
+		this.pipelined = null;
+		this.lastPipelined = false;
+	}
+
+	/**
+	 * Choose the execution mode. By default (null), the statements are joined
+	 * if the driver reports that it supports multiple result sets and
+	 * accepts the probe.
+	 *
+	 * @param pipelined
+	 *            true to force a single round trip, false to force the
+	 *            sequential execution, null for auto-detection
+	 */
+	public void setPipelined(Boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Add a SELECT statement.
+	 *
+	 * @param sql
+	 *            the native SQL query (without trailing semicolon)
+	 * @param beanClass
+	 *            the class of the POJO, or Row.class
+	 * @param parameters
+	 *            the parameters, bound with setObject (null included)
+	 * @return the index of the result
+	 */
+	public int add(String sql, Class<?> beanClass, Object... parameters) {
+		entries.add(new Entry(sql, beanClass, parameters));
+		return entries.size() - 1;
+	}
+
+	/**
+	 * Add an INSERT/UPDATE/DELETE statement.
+	 *
+	 * @param sql
+	 *            the native SQL query (without trailing semicolon)
+	 * @param parameters
+	 *            the parameters
+	 * @return the index of the result
+	 */
+	public int addUpdate(String sql, Object... parameters) {
+		return add(sql, null, parameters);
+	}
+
+	private static int bind(PreparedStatement statement, int index,
+			Object[] parameters) throws SQLException {
+		for (Object parameter : parameters)
+			statement.setObject(index++, parameter);
+		return index;
+	}
+
+	private boolean isPipelined(Connection cnx) throws SQLException {
+		if (pipelined != null)
+			return pipelined;
+		if (entries.size() < 2)
+			return false;
+		String key = cnx.getMetaData().getDriverName() + ' '
+				+ cnx.getMetaData().getURL();
+		Boolean supported = supportedDrivers.get(key);
+		if (supported == null) {
+			supported = cnx.getMetaData().supportsMultipleResultSets()
+					&& probe(cnx);
+			supportedDrivers.put(key, supported);
+			if (!supported && logger.isLoggable(Level.INFO))
+				logger.info("Pipelined execution not supported by "
+						+ cnx.getMetaData().getDriverName());
+		}
+		return supported;
+	}
+
+	/**
+	 * A syntax error or a feature not supported: the driver or the database
+	 * does not accept joined statements
+	 */
+	private static boolean isUnsupported(SQLException e) {
+		if (e instanceof SQLSyntaxErrorException
+				|| e instanceof SQLFeatureNotSupportedException)
+			return true;
+		String state = e.getSQLState();
+		return state != null
+				&& (state.startsWith("42") || state.startsWith("0A"));
+	}
+
+	/**
+	 * Execute a joined statement without side effect
+	 * 
+	 * @return true if the two results have been returned
+	 * @throws SQLException
+	 *             if any other JDBC error occurs
+	 */
+	private static boolean probe(Connection cnx) throws SQLException {
+		Savepoint savepoint = null;
+		if (!cnx.getAutoCommit()) {
+			try {
+				savepoint = cnx.setSavepoint();
+			} catch (SQLFeatureNotSupportedException e) {
+				return false;
+			}
+		}
+		boolean failed = true;
+		try (PreparedStatement statement = cnx.prepareStatement(PROBE_SQL)) {
+			int results = 0;
+			boolean isResultSet = statement.execute();
+			while (isResultSet || statement.getUpdateCount() != -1) {
+				if (isResultSet)
+					results++;
+				isResultSet = statement.getMoreResults();
+			}
+			failed = false;
+			return results == 2;
+		} catch (SQLException e) {
+			if (!isUnsupported(e))
+				throw e;
+			return false;
+		} finally {
+			if (savepoint != null) {
+				if (failed)
+					cnx.rollback(savepoint);
+				else
+					cnx.releaseSavepoint(savepoint);
+			}
+		}
+	}
+
+	/**
+	 * Execute every statement.
+	 *
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public void execute() throws Exception {
+		lastPipelined = isPipelined(transaction.getConnection());
+		if (lastPipelined)
+			executePipelined();
+		else
+			executeSequential();
+	}
+
+	private void executeSequential() throws Exception {
+		for (Entry entry : entries) {
+			Query query = transaction.prepare(entry.sql);
+			try {
+				bind(query.getStatement(), 1, entry.parameters);
+				if (entry.beanClass == null)
+					entry.updateCount = query.update();
+				else if (entry.beanClass == Row.class)
+					entry.resultList = query.getResultList();
+				else
+					entry.resultList = query.getResultList(entry.beanClass);
+			} finally {
+				transaction.closeQuery(query);
+			}
+		}
+	}
+
+	private void executePipelined() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (Entry entry : entries) {
+			if (sb.length() > 0)
+				sb.append(";\n");
+			sb.append(entry.sql);
+		}
+		Query query = transaction.prepare(sb.toString());
+		try {
+			PreparedStatement statement = query.getStatement();
+			int index = 1;
+			for (Entry entry : entries)
+				index = bind(statement, index, entry.parameters);
+			boolean isResultSet = query.execute();
+			for (Entry entry : entries) {
+				if (isResultSet) {
+					if (entry.beanClass == null)
+						throw new SQLException(
+								"Statement returned a ResultSet: " + entry.sql);
+					entry.resultList = query.map(statement.getResultSet(),
+							entry.beanClass);
+				} else {
+					entry.updateCount = statement.getUpdateCount();
+					if (entry.updateCount == -1)
+						throw new SQLException("No more results for: "
+								+ entry.sql);
+					if (entry.updateCount > 0)
+						transaction.updated(entry.sql);
+					if (entry.beanClass != null)
+						throw new SQLException(
+								"Statement returned no ResultSet: " + entry.sql);
+				}
+				isResultSet = statement.getMoreResults();
+			}
+		} finally {
+			transaction.closeQuery(query);
+		}
+	}
+
+	/**
+	 * @return true if the last execution was done in one round trip
+	 */
+	public boolean isLastPipelined() {
+		return lastPipelined;
+	}
+
+	/**
+	 * @param index
+	 *            the index returned by add
+	 * @param beanClass
+	 *            the class of the POJO, or Row.class
+	 * @return the list of POJO (or Row), usable until the transaction is
+	 *         closed
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> getResultList(int index, Class<T> beanClass) {
+		Entry entry = entries.get(index);
+		if (entry.beanClass != beanClass)
+			throw new IllegalArgumentException("Result " + index
+					+ " is mapped to " + entry.beanClass);
+		return (List<T>) entry.resultList;
+	}
+
+	/**
+	 * @param index
+	 *            the index returned by addUpdate
+	 * @return the row count, or -1
+	 */
+	public int getUpdateCount(int index) {
+		return entries.get(index).updateCount;
+	}
+}
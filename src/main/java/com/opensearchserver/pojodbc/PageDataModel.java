@@ -37,6 +37,10 @@ public abstract class PageDataModel<T> extends DataModel<T> {
 	private Class<T> beanClass;
 	private ConnectionManager connectionManager;
 	private int transactionIsolation;
+	private ChangeTracking<T> changeTracking;
+	private Object highWaterMark;
+	private int fullLoadCount;
+	private int incrementalRefreshCount;
 
 	public PageDataModel(ConnectionManager cm, int transactionIsolation,
 			Class<T> beanClass, int pageSize) throws SQLException {
@@ -126,16 +130,29 @@ public abstract class PageDataModel<T> extends DataModel<T> {
 		synchronized (this) {
 			if (index == currentStart)
 				return;
+			load(index);
+		}
+	}
+
+	private void load(int index) throws Exception {
+		synchronized (this) {
 			Transaction transaction = null;
 			try {
 				transaction = connectionManager.getNewTransaction(false,
 						transactionIsolation);
+				// Read before the page: a later change has a greater version
+				Object maxVersion = getMaxVersion(transaction);
 				Query query = getQuery(transaction);
 				query.setFirstResult(index);
 				query.setMaxResults(pageSize);
+				PartialList.release(list);
 				list = query.getResultList(beanClass);
+				query.keep(list);
 				size = query.getResultCount();
 				currentStart = index;
+				fullLoadCount++;
+				highWaterMark = changeTracking == null ? null : changeTracking
+						.getHighWaterMark(list, maxVersion);
 			} catch (Exception e) {
 				throw e;
 			} finally {
@@ -147,6 +164,127 @@ public abstract class PageDataModel<T> extends DataModel<T> {
 
 	public abstract Query getQuery(Transaction transaction);
 
+	private Object getMaxVersion(Transaction transaction) throws SQLException {
+		if (changeTracking == null)
+			return null;
+		Query countQuery = getCountQuery(transaction);
+		return countQuery == null ? null : ChangeTracking
+				.getMaxVersion(countQuery);
+	}
+
+	/**
+	 * Enable the incremental refresh. The count and changes queries must be
+	 * provided by overriding getCountQuery and getChangesQuery.
+	 * 
+	 * @param changeTracking
+	 *            the change-tracking column, or null
+	 */
+	public void setChangeTracking(ChangeTracking<T> changeTracking) {
+		synchronized (this) {
+			this.changeTracking = changeTracking;
+			this.highWaterMark = null;
+		}
+	}
+
+	/**
+	 * @param transaction
+	 *            the current transaction
+	 * @return a query returning the number of rows of the list, and the
+	 *         greatest version used as the first high-water mark (SELECT
+	 *         COUNT(*), MAX(version) ...), or null to always reload the page
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	protected Query getCountQuery(Transaction transaction) throws SQLException {
+		return null;
+	}
+
+	/**
+	 * @param transaction
+	 *            the current transaction
+	 * @param highWaterMark
+	 *            the greatest version loaded, to be bound as parameter
+	 * @return a query returning the rows of the list whose version is greater
+	 *         than the high-water mark, or null to always reload the page
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	protected Query getChangesQuery(Transaction transaction,
+			Object highWaterMark) throws SQLException {
+		return null;
+	}
+
+	/**
+	 * Refresh the current page. With change tracking, only the rows changed
+	 * since the last load are fetched and patched into the page, unless the
+	 * number of rows or the ordering changed.
+	 * 
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public void refresh() throws Exception {
+		synchronized (this) {
+			if (currentStart == -1)
+				return;
+			if (changeTracking != null && highWaterMark != null
+					&& refreshChanges())
+				return;
+			load(currentStart);
+		}
+	}
+
+	private boolean refreshChanges() throws Exception {
+		Transaction transaction = null;
+		try {
+			transaction = connectionManager.getNewTransaction(false,
+					transactionIsolation);
+			Query countQuery = getCountQuery(transaction);
+			if (countQuery == null || ChangeTracking.count(countQuery) != size)
+				return false;
+			Query changesQuery = getChangesQuery(transaction, highWaterMark);
+			if (changesQuery == null)
+				return false;
+			List<T> changes = changesQuery.getResultList(beanClass);
+			try {
+				List<T> patched = changeTracking.patch(list, changes,
+						currentStart == 0, currentStart + list.size() >= size);
+				if (patched == null)
+					return false;
+				if (patched != list) {
+					PartialList.release(list);
+					list = patched;
+				}
+				highWaterMark = changeTracking.getHighWaterMark(changes,
+						highWaterMark);
+			} finally {
+				PartialList.release(changes);
+			}
+			incrementalRefreshCount++;
+			return true;
+		} finally {
+			if (transaction != null)
+				transaction.close();
+		}
+	}
+
+	/**
+	 * @return the number of times the page has been loaded by the full query
+	 */
+	public int getFullLoadCount() {
+		synchronized (this) {
+			return fullLoadCount;
+		}
+	}
+
+	/**
+	 * @return the number of refreshes done using the changes query only
+	 */
+	public int getIncrementalRefreshCount() {
+		synchronized (this) {
+			return incrementalRefreshCount;
+		}
+	}
+
 	public Iterator<T> currentPageIterator() {
 		synchronized (this) {
 			return list.iterator();
@@ -18,6 +18,8 @@
  */
 package com.opensearchserver.pojodbc;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.AbstractList;
 import java.util.List;
@@ -28,6 +30,8 @@ public abstract class PartialList<T> extends AbstractList<T> {
 	protected List<T> partialList;
 	protected int currentStart;
 	protected int rows;
+	private ChangeTracking<T> changeTracking;
+	private Object highWaterMark;
 
 	public PartialList(int rows) {
 		this.rows = rows;
@@ -55,16 +59,29 @@ public abstract class PartialList<T> extends AbstractList<T> {
 			if (partialList != null)
 				if (currentStart == start && currentStart != -1)
 					return;
+			load(start);
+		}
+	}
+
+	private void load(int start) {
+		synchronized (this) {
 			Transaction transaction = null;
 			try {
 				transaction = getDatabaseTransaction();
+				// Read before the window: a later change has a greater version
+				Object maxVersion = getMaxVersion(transaction);
 				Query query = getQuery(transaction);
 				currentStart = start;
 				query.setFirstResult(currentStart);
 				query.setMaxResults(rows);
+				release(partialList);
 				partialList = getResultList(query);
+				query.keep(partialList);
 				size = query.getResultCount();
+				highWaterMark = changeTracking == null ? null : changeTracking
+						.getHighWaterMark(partialList, maxVersion);
 			} catch (Exception e) {
+				release(partialList);
 				partialList = null;
 				size = 0;
 				throw new RuntimeException(e);
@@ -75,6 +92,123 @@ public abstract class PartialList<T> extends AbstractList<T> {
 		}
 	}
 
+	private Object getMaxVersion(Transaction transaction) throws SQLException {
+		if (changeTracking == null)
+			return null;
+		Query countQuery = getCountQuery(transaction);
+		return countQuery == null ? null : ChangeTracking
+				.getMaxVersion(countQuery);
+	}
+
+	/**
+	 * Enable the incremental refresh. The count and changes queries must be
+	 * provided by overriding getCountQuery and getChangesQuery.
+	 * 
+	 * @param changeTracking
+	 *            the change-tracking column, or null
+	 */
+	public void setChangeTracking(ChangeTracking<T> changeTracking) {
+		synchronized (this) {
+			this.changeTracking = changeTracking;
+			this.highWaterMark = null;
+		}
+	}
+
+	/**
+	 * @param transaction
+	 *            the current transaction
+	 * @return a query returning the number of rows of the list, and the
+	 *         greatest version used as the first high-water mark (SELECT
+	 *         COUNT(*), MAX(version) ...), or null to always reload the window
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	protected Query getCountQuery(Transaction transaction) throws SQLException {
+		return null;
+	}
+
+	/**
+	 * @param transaction
+	 *            the current transaction
+	 * @param highWaterMark
+	 *            the greatest version loaded, to be bound as parameter
+	 * @return a query returning the rows of the list whose version is greater
+	 *         than the high-water mark, or null to always reload the window
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	protected Query getChangesQuery(Transaction transaction,
+			Object highWaterMark) throws SQLException {
+		return null;
+	}
+
+	/**
+	 * Refresh the current window. With change tracking, only the rows changed
+	 * since the last load are fetched and patched into the window, unless the
+	 * number of rows or the ordering changed.
+	 */
+	public void refresh() {
+		synchronized (this) {
+			if (partialList == null)
+				return;
+			if (changeTracking != null && highWaterMark != null)
+				try {
+					if (refreshChanges())
+						return;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			load(currentStart);
+		}
+	}
+
+	private boolean refreshChanges() throws Exception {
+		Transaction transaction = null;
+		try {
+			transaction = getDatabaseTransaction();
+			Query countQuery = getCountQuery(transaction);
+			if (countQuery == null || ChangeTracking.count(countQuery) != size)
+				return false;
+			Query changesQuery = getChangesQuery(transaction, highWaterMark);
+			if (changesQuery == null)
+				return false;
+			List<T> changes = getResultList(changesQuery);
+			try {
+				List<T> patched = changeTracking.patch(partialList, changes,
+						currentStart == 0,
+						currentStart + partialList.size() >= size);
+				if (patched == null)
+					return false;
+				if (patched != partialList) {
+					release(partialList);
+					partialList = patched;
+				}
+				highWaterMark = changeTracking.getHighWaterMark(changes,
+						highWaterMark);
+			} finally {
+				release(changes);
+			}
+			return true;
+		} finally {
+			if (transaction != null)
+				transaction.close();
+		}
+	}
+
+	/**
+	 * Release the previous window if it is backed by a temporary file (see
+	 * Query.setSpillBudget)
+	 */
+	static void release(List<?> list) {
+		if (!(list instanceof Closeable))
+			return;
+		try {
+			((Closeable) list).close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public int size() {
 		return size;
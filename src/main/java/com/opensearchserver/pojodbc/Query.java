@@ -18,10 +18,7 @@
  */
 package com.opensearchserver.pojodbc;
 
-import java.beans.BeanInfo;
 import java.beans.Beans;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -29,7 +26,9 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -78,16 +77,44 @@ public class Query {
 	private ResultSet resultSet;
 	private HashMap<Class<?>, List<?>> resultListMap;
 	private PreparedStatement statement;
+	private final String sql;
 	private int firstResult;
 	private int maxResults;
+	private boolean streamedLobs;
+	private long lobSpillThreshold;
+	private long spillBudget;
+	private MemoryBudget memoryBudget;
+	private StringDictionary stringDictionary;
+	private boolean truncated;
+	private FetchSizePolicy fetchSizePolicy;
+	private FetchSizePolicy.Scan scan;
+	private Deadline deadline;
+	private boolean queryTimeoutSet;
+	private Transaction transaction;
+	private boolean closed;
+	private List<LobHandle> lobHandles;
+	private List<SpillList<?>> spillLists;
 
 	static protected Logger logger = Logger.getLogger(Query.class
 			.getCanonicalName());
 
 	protected Query(PreparedStatement statement) {
+		this(statement, null);
+	}
+
+	protected Query(PreparedStatement statement, String sql) {
 		this.statement = statement;
+		this.sql = sql;
 		firstResult = 0;
 		maxResults = -1;
+		streamedLobs = false;
+		lobSpillThreshold = -1;
+		spillBudget = -1;
+		memoryBudget = null;
+		stringDictionary = null;
+		truncated = false;
+		fetchSizePolicy = null;
+		deadline = null;
 		resultListMap = new HashMap<Class<?>, List<?>>();
 	}
 
@@ -107,26 +134,323 @@ public class Query {
 		this.maxResults = maxResults;
 	}
 
+	/**
+	 * @param streamedLobs
+	 *            if true, the LOB columns of the Row objects are returned as
+	 *            LobHandle instead of being materialized by getObject. The
+	 *            handles are valid until the transaction is closed.
+	 */
+	public void setStreamedLobs(boolean streamedLobs) {
+		this.streamedLobs = streamedLobs;
+	}
+
+	/**
+	 * Set how LOB columns are kept by the LobHandle objects.
+	 * <p>
+	 * With the default value (-1) the JDBC locator is kept when the driver
+	 * provides one, and the transaction must remain open while the LOB is read.
+	 * With a positive value, the LOB is detached from the transaction: it is
+	 * copied in memory if its size is below the threshold, otherwise it is
+	 * written in a temporary file read back through memory-mapped I/O.
+	 * </p>
+	 * 
+	 * @param lobSpillThreshold
+	 *            the size in bytes above which a LOB is spilled to disk, or -1
+	 */
+	public void setLobSpillThreshold(long lobSpillThreshold) {
+		this.lobSpillThreshold = lobSpillThreshold;
+	}
+
+	/**
+	 * Set a memory budget for the result lists. When the budget is set, the
+	 * result lists are SpillList instances: the rows exceeding the budget are
+	 * written to a temporary file and decoded on demand. The SpillList
+	 * remains usable when the query is re-used or closed, it is closed with
+	 * the transaction (or earlier by its owner, see SpillList.close).
+	 * 
+	 * @param spillBudget
+	 *            the estimated heap size in bytes, or -1 to keep the whole
+	 *            result in memory
+	 */
+	public void setSpillBudget(long spillBudget) {
+		this.spillBudget = spillBudget;
+	}
+
+	/**
+	 * Set the memory budget of the result lists. By default, the budget of
+	 * the ConnectionManager is used.
+	 * 
+	 * @param memoryBudget
+	 *            the budget, or null for no limit
+	 */
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Set the dictionary used to de-duplicate the strings of the results. By
+	 * default, the dictionary of the ConnectionManager is used.
+	 * 
+	 * @param stringDictionary
+	 *            the dictionary, or null
+	 */
+	public void setStringDictionary(StringDictionary stringDictionary) {
+		this.stringDictionary = stringDictionary;
+	}
+
+	private StringDictionary.Columns newColumnDictionaries(int columnCount) {
+		return stringDictionary == null ? null : stringDictionary
+				.newColumns(columnCount);
+	}
+
+	/**
+	 * @return true if the last result list has been truncated by the
+	 *         MemoryBudget
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	private long getSpillBudget() {
+		if (spillBudget >= 0)
+			return spillBudget;
+		if (memoryBudget != null
+				&& memoryBudget.getPolicy() == MemoryBudget.Policy.SPILL)
+			return memoryBudget.getMaxBytes();
+		return -1;
+	}
+
+	/**
+	 * Check the estimated size of the rows read so far against the memory
+	 * budget
+	 * 
+	 * @return true if the reading must stop
+	 */
+	private boolean checkBudget(long totalSize, int rowCount)
+			throws SQLException {
+		if (memoryBudget == null || totalSize <= memoryBudget.getMaxBytes())
+			return false;
+		switch (memoryBudget.getPolicy()) {
+		case FAIL:
+			memoryBudget.rejected();
+			endScan();
+			throw new MemoryBudgetExceededException(sql,
+					memoryBudget.getMaxBytes(), rowCount);
+		case TRUNCATE:
+			memoryBudget.truncated();
+			truncated = true;
+			if (logger.isLoggable(Level.WARNING))
+				logger.warning("Result truncated to " + rowCount
+						+ " rows by the memory budget: " + sql);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void spillEnded(SpillList<?> list) {
+		if (memoryBudget != null && list.isSpilled())
+			memoryBudget.spilled();
+	}
+
+	/**
+	 * Set the policy used to choose the fetch size. By default, the policy of
+	 * the ConnectionManager is used.
+	 * 
+	 * @param fetchSizePolicy
+	 *            the policy, or null to use maxResults as fetch size
+	 */
+	public void setFetchSizePolicy(FetchSizePolicy fetchSizePolicy) {
+		this.fetchSizePolicy = fetchSizePolicy;
+	}
+
+	/**
+	 * Set the deadline of the query. The statement timeout is set to the
+	 * remaining time, and the statement is cancelled when the deadline passes.
+	 * By default, the deadline of the Transaction is used. Without deadline,
+	 * the timeout set for a previous deadline is reset.
+	 * 
+	 * @param deadline
+	 *            the deadline, or null
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @param transaction
+	 *            the transaction notified of the updates
+	 */
+	void setTransaction(Transaction transaction) {
+		this.transaction = transaction;
+	}
+
+	private ScheduledFuture<?> startDeadline() throws SQLException {
+		if (deadline == null) {
+			resetQueryTimeout();
+			return null;
+		}
+		queryTimeoutSet = true;
+		return deadline.watch(statement);
+	}
+
+	private void resetQueryTimeout() throws SQLException {
+		if (!queryTimeoutSet)
+			return;
+		statement.setQueryTimeout(0);
+		queryTimeoutSet = false;
+	}
+
+	private void endDeadline(ScheduledFuture<?> watch) {
+		if (watch != null)
+			watch.cancel(false);
+	}
+
+	private SQLException translate(SQLException e) {
+		return deadline == null ? e : deadline.translate(e);
+	}
+
+	/**
+	 * @return the native SQL query, or null if unknown
+	 */
+	public String getSql() {
+		return sql;
+	}
+
 	/**
 	 * Close all component of that query (ResultSet and Statement)
 	 */
 	protected void closeAll() {
 		ConnectionManager.close(resultSet, statement, null);
+		resultSet = null;
+		releaseResults();
+		closed = true;
+	}
+
+	/**
+	 * Release the resources returned by the previous executions (SpillList,
+	 * LobHandle). They are handed over to the transaction, the lists already
+	 * returned remain usable until the transaction is closed. Without
+	 * transaction, they are closed.
+	 */
+	private void releaseResults() {
+		if (transaction != null) {
+			if (spillLists != null)
+				transaction.keepResults(spillLists);
+			if (lobHandles != null)
+				transaction.keepResults(lobHandles);
+		} else {
+			if (spillLists != null)
+				for (SpillList<?> list : spillLists)
+					list.close();
+			if (lobHandles != null)
+				for (LobHandle lob : lobHandles)
+					lob.close();
+		}
+		spillLists = null;
+		lobHandles = null;
+	}
+
+	private void track(SpillList<?> list) {
+		if (spillLists == null)
+			spillLists = new ArrayList<SpillList<?>>();
+		spillLists.add(list);
+	}
+
+	/**
+	 * Detach a result list from the query: if it is a SpillList, it is no
+	 * longer closed with the transaction and the caller must close it.
+	 * 
+	 * @param list
+	 *            a list returned by this query
+	 */
+	void keep(List<?> list) {
+		if (spillLists == null)
+			return;
+		Iterator<SpillList<?>> iterator = spillLists.iterator();
+		while (iterator.hasNext())
+			if (iterator.next() == list)
+				iterator.remove();
+	}
+
+	private void track(LobHandle lob) {
+		if (lobHandles == null)
+			lobHandles = new ArrayList<LobHandle>();
+		lobHandles.add(lob);
+	}
+
+	/**
+	 * @return true if the statement has been closed
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Close the query before the end of the transaction, to release the
+	 * statement and the cursor. The lists already returned remain usable. The
+	 * SpillList instances and the streamed LOB (LobHandle, streams) are
+	 * closed with the transaction.
+	 */
+	public void close() {
+		if (transaction != null)
+			transaction.closeQuery(this);
+		else
+			closeAll();
+	}
+
+	/**
+	 * @return true if the query holds an open ResultSet
+	 */
+	boolean hasResultSet() {
+		return resultSet != null;
+	}
+
+	/**
+	 * @return true if the query holds an open ResultSet, or if the last
+	 *         execution returned resources (SpillList, streamed LOB)
+	 */
+	boolean isInUse() {
+		return resultSet != null || spillLists != null || lobHandles != null;
 	}
 
 	private class MethodColumnIndex {
 		private int columnIndex;
 		private Method method;
+		private Class<?> paramType;
+		private int sqlType;
 
-		private MethodColumnIndex(int columnIndex, Method method) {
+		private MethodColumnIndex(int columnIndex, Method method, int sqlType) {
 			this.columnIndex = columnIndex;
 			this.method = method;
+			this.paramType = method.getParameterTypes()[0];
+			this.sqlType = sqlType;
+		}
+
+		private Object getColumnObject(ResultSet resultSet) throws Exception {
+			return convert(getColumnValue(resultSet));
+		}
+
+		/**
+		 * @return the column value, a LobHandle for the streamed properties
+		 */
+		private Object getColumnValue(ResultSet resultSet) throws Exception {
+			if (!LobHandle.isStreamedType(paramType))
+				return resultSet.getObject(columnIndex);
+			LobHandle lob = LobHandle.read(resultSet, columnIndex, sqlType,
+					lobSpillThreshold);
+			if (lob != null)
+				track(lob);
+			return lob;
 		}
 
-		private void invoke(Object bean, ResultSet resultSet) throws Exception {
-			if (method == null)
-				return;
-			Object colObject = resultSet.getObject(columnIndex);
+		private Object convert(Object value) throws Exception {
+			if (value instanceof LobHandle)
+				return ((LobHandle) value).convert(paramType);
+			return value;
+		}
+
+		private void set(Object bean, Object colObject) throws Exception {
 			try {
 				if (colObject != null)
 					method.invoke(bean, colObject);
@@ -144,43 +468,136 @@ public class Query {
 		}
 	}
 
-	private <T> List<T> createBeanList(Class<T> beanClass) throws Exception {
+	private <T> List<T> createBeanList(BeanMapping<T> mapping)
+			throws Exception {
+		Class<T> beanClass = mapping.getBeanClass();
+		BeanMapping.Plan plan = mapping.resolve(resultSet.getMetaData());
+		if (getSpillBudget() < 0 && stringDictionary == null
+				&& plan.properties != null)
+			return createMappedBeanList(mapping.getMapper(), plan);
 		// Find related methods and columns
-		ResultSetMetaData rs = resultSet.getMetaData();
-		int columnCount = rs.getColumnCount();
-		BeanInfo beanInfo;
-		beanInfo = Introspector.getBeanInfo(beanClass);
-		PropertyDescriptor[] props = beanInfo.getPropertyDescriptors();
-		ArrayList<MethodColumnIndex> methods = new ArrayList<MethodColumnIndex>();
-
-		if (logger.isLoggable(Level.FINEST))
-			logger.finest("Search properties for bean "
-					+ beanClass.getSimpleName());
-		for (int i = 1; i <= columnCount; i++) {
-			String columnName = rs.getColumnLabel(i);
-			for (PropertyDescriptor propDesc : props) {
-				if (propDesc.getWriteMethod() != null
-						&& propDesc.getName().equalsIgnoreCase(columnName)) {
-					methods.add(new MethodColumnIndex(i, propDesc
-							.getWriteMethod()));
-					if (logger.isLoggable(Level.FINEST))
-						logger.finest("Found property \"" + propDesc.getName()
-								+ "\" for column name \"" + columnName + "\"");
-					break;
-				}
-			}
-		}
+		ArrayList<MethodColumnIndex> methods = new ArrayList<MethodColumnIndex>(
+				plan.columns.length);
+		for (int i = 0; i < plan.columns.length; i++)
+			methods.add(new MethodColumnIndex(plan.columns[i],
+					plan.methods[i], plan.sqlTypes[i]));
+		if (getSpillBudget() >= 0)
+			return createSpillBeanList(beanClass, methods);
 		// Create bean list
 		List<T> list = new ArrayList<T>();
 		moveToFirstResult();
+		boolean accounting = scan != null || memoryBudget != null;
+		long totalSize = 0;
+		StringDictionary.Columns dictionaries = newColumnDictionaries(methods
+				.size());
 		int limit = maxResults;
 		while (resultSet.next() && limit-- != 0) {
 			@SuppressWarnings("unchecked")
 			T bean = (T) Beans.instantiate(beanClass.getClassLoader(),
 					beanClass.getCanonicalName());
-			for (MethodColumnIndex methodColumnIndex : methods)
-				methodColumnIndex.invoke(bean, resultSet);
+			long size = 0;
+			for (int i = 0; i < methods.size(); i++) {
+				MethodColumnIndex methodColumnIndex = methods.get(i);
+				Object colObject = methodColumnIndex
+						.getColumnObject(resultSet);
+				if (dictionaries != null)
+					colObject = dictionaries.intern(i, colObject);
+				methodColumnIndex.set(bean, colObject);
+				if (accounting)
+					size += RowCodec.estimateSize(colObject);
+			}
 			list.add(bean);
+			rowFetched(size);
+			totalSize += size;
+			if (checkBudget(totalSize, list.size()))
+				break;
+		}
+		if (dictionaries != null)
+			dictionaries.end();
+		endScan();
+		return list;
+	}
+
+	/**
+	 * Build the list with a generated mapper
+	 */
+	private <T> List<T> createMappedBeanList(BeanMapper<T> mapper,
+			BeanMapping.Plan plan) throws Exception {
+		String[] properties = mapper.getProperties();
+		int[] columns = plan.mapperColumns;
+		int[] props = plan.properties;
+		List<T> list = new ArrayList<T>();
+		moveToFirstResult();
+		boolean accounting = scan != null || memoryBudget != null;
+		long totalSize = 0;
+		int limit = maxResults;
+		while (resultSet.next() && limit-- != 0) {
+			T bean = mapper.newInstance();
+			long size = 0;
+			for (int i = 0; i < columns.length; i++) {
+				Object colObject;
+				try {
+					colObject = mapper.set(bean, props[i], resultSet,
+							columns[i]);
+				} catch (RuntimeException e) {
+					throw new Exception("Error on column " + columns[i]
+							+ " property " + properties[props[i]], e);
+				}
+				if (accounting)
+					size += RowCodec.estimateSize(colObject);
+			}
+			list.add(bean);
+			rowFetched(size);
+			totalSize += size;
+			if (checkBudget(totalSize, list.size()))
+				break;
+		}
+		endScan();
+		return list;
+	}
+
+	private <T> SpillList<T> createSpillBeanList(final Class<T> beanClass,
+			final List<MethodColumnIndex> methods) throws Exception {
+		SpillList<T> list = new SpillList<T>(getSpillBudget(),
+				new SpillList.Decoder<T>() {
+					@Override
+					public T decode(Object[] values) throws Exception {
+						@SuppressWarnings("unchecked")
+						T bean = (T) Beans.instantiate(
+								beanClass.getClassLoader(),
+								beanClass.getCanonicalName());
+						for (int i = 0; i < values.length; i++) {
+							MethodColumnIndex method = methods.get(i);
+							method.set(bean, method.convert(values[i]));
+						}
+						return bean;
+					}
+				});
+		try {
+			moveToFirstResult();
+			StringDictionary.Columns dictionaries = newColumnDictionaries(methods
+					.size());
+			int limit = maxResults;
+			while (resultSet.next() && limit-- != 0) {
+				Object[] values = new Object[methods.size()];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = methods.get(i).getColumnValue(resultSet);
+					if (dictionaries != null)
+						values[i] = dictionaries.intern(i, values[i]);
+				}
+				list.append(values);
+				if (scan != null)
+					rowFetched(RowCodec.estimateSize(values));
+			}
+			if (dictionaries != null)
+				dictionaries.end();
+			endScan();
+			list.seal();
+			spillEnded(list);
+			track(list);
+		} catch (Exception e) {
+			list.close();
+			throw e;
 		}
 		return list;
 	}
@@ -210,9 +627,99 @@ public class Query {
 		return rows;
 	}
 
+	private void rowFetched(long size) throws SQLException {
+		if (scan == null)
+			return;
+		int fetchSize = scan.rowFetched(size);
+		if (fetchSize > 0)
+			resultSet.setFetchSize(fetchSize);
+	}
+
+	private void endScan() {
+		if (scan == null)
+			return;
+		scan.end();
+		scan = null;
+	}
+
+	private SpillList<Row> createSpillRowList() throws SQLException {
+		int columnCount = resultSet.getMetaData().getColumnCount();
+		SpillList<Row> rows = new SpillList<Row>(getSpillBudget(),
+				new SpillList.Decoder<Row>() {
+					@Override
+					public Row decode(Object[] values) {
+						return new Row(values);
+					}
+				});
+		try {
+			StringDictionary.Columns dictionaries = newColumnDictionaries(columnCount);
+			int limit = maxResults;
+			while (resultSet.next() && limit-- != 0) {
+				Object[] values = new Object[columnCount];
+				for (int i = 0; i < columnCount; i++) {
+					values[i] = resultSet.getObject(i + 1);
+					if (dictionaries != null)
+						values[i] = dictionaries.intern(i, values[i]);
+				}
+				rows.append(values);
+				if (scan != null)
+					rowFetched(RowCodec.estimateSize(values));
+			}
+			if (dictionaries != null)
+				dictionaries.end();
+			endScan();
+			rows.seal();
+			spillEnded(rows);
+			track(rows);
+		} catch (SQLException e) {
+			rows.close();
+			throw e;
+		} catch (Exception e) {
+			rows.close();
+			throw new SQLException(e);
+		}
+		return rows;
+	}
+
 	private List<Row> createRowList() throws SQLException {
 		moveToFirstResult();
-		List<Row> rows = createRowList(resultSet, maxResults);
+		if (getSpillBudget() >= 0)
+			return createSpillRowList();
+		ResultSetMetaData rs = resultSet.getMetaData();
+		int columnCount = rs.getColumnCount();
+		int[] sqlTypes = null;
+		if (streamedLobs) {
+			sqlTypes = new int[columnCount];
+			for (int i = 0; i < columnCount; i++)
+				sqlTypes[i] = rs.getColumnType(i + 1);
+		}
+		ArrayList<Row> rows = new ArrayList<Row>();
+		boolean accounting = scan != null || memoryBudget != null;
+		long totalSize = 0;
+		StringDictionary.Columns dictionaries = newColumnDictionaries(columnCount);
+		int limit = maxResults;
+		while (resultSet.next() && limit-- != 0) {
+			Row row = sqlTypes == null ? new Row(columnCount, resultSet)
+					: new Row(sqlTypes, resultSet, lobSpillThreshold);
+			if (sqlTypes != null)
+				for (int i = 0; i < columnCount; i++)
+					if (row.get(i) instanceof LobHandle)
+						track((LobHandle) row.get(i));
+			if (dictionaries != null)
+				for (int i = 0; i < columnCount; i++)
+					row.set(i, dictionaries.intern(i, row.get(i)));
+			rows.add(row);
+			if (!accounting)
+				continue;
+			long size = row.estimateSize();
+			rowFetched(size);
+			totalSize += size;
+			if (checkBudget(totalSize, rows.size()))
+				break;
+		}
+		if (dictionaries != null)
+			dictionaries.end();
+		endScan();
 		return rows;
 	}
 
@@ -226,7 +733,8 @@ public class Query {
 	}
 
 	/**
-	 * Release the last ResultSet (if any) and the last ResultList.
+	 * Release the last ResultSet (if any) and the last ResultList. The lists
+	 * already returned remain usable.
 	 */
 	public void reUse() {
 		if (resultSet != null) {
@@ -234,19 +742,27 @@ public class Query {
 			resultSet = null;
 		}
 		resultListMap.clear();
+		releaseResults();
+		truncated = false;
 	}
 
 	private void checkResultSet() throws SQLException {
 		if (resultSet != null)
 			return;
-		if (maxResults != -1)
+		if (transaction != null)
+			transaction.touch(this);
+		if (fetchSizePolicy != null && sql != null) {
+			scan = fetchSizePolicy.begin(sql, maxResults);
+			statement.setFetchSize(scan.getFetchSize());
+		} else if (maxResults != -1)
 			statement.setFetchSize(maxResults);
 		resultSet = statement.executeQuery();
 	}
 
 	/**
 	 * Returns the list of POJO. The list is cached. Every subsequent call
-	 * returns the same list.
+	 * returns the same list. If a BeanMapper has been generated for the class
+	 * (see Mapped), it is used instead of the Introspector.
 	 * 
 	 * @param beanClass
 	 *            The class name of POJO returned in the list
@@ -255,24 +771,120 @@ public class Query {
 	 *             if any JDBC error occurs
 	 */
 	public <T> List<T> getResultList(Class<T> beanClass) throws Exception {
+		return getResultList(new BeanMapping<T>(beanClass));
+	}
+
+	/**
+	 * Same as getResultList(beanClass), the matching of the columns is
+	 * resolved once by the mapping and reused by the next executions.
+	 * 
+	 * @param mapping
+	 *            the mapping of the class of the POJO
+	 * @return a list of POJO
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	<T> List<T> getResultList(BeanMapping<T> mapping) throws Exception {
+		Class<T> beanClass = mapping.getBeanClass();
 		@SuppressWarnings("unchecked")
 		List<T> resultList = (List<T>) resultListMap.get(beanClass);
 		if (resultList != null)
 			return (List<T>) resultList;
-		checkResultSet();
-		resultList = createBeanList(beanClass);
+		ScheduledFuture<?> watch = startDeadline();
+		try {
+			checkResultSet();
+			resultList = createBeanList(mapping);
+		} catch (SQLException e) {
+			throw translate(e);
+		} finally {
+			endDeadline(watch);
+		}
 		resultListMap.put(beanClass, resultList);
 		return resultList;
 	}
 
+	/**
+	 * Map the result of a JOIN to a graph of POJO. The list is not cached.
+	 * 
+	 * @param mapper
+	 *            the description of the graph
+	 * @return the list of root POJO
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public <T> List<T> getResultList(GraphMapper<T> mapper) throws Exception {
+		ScheduledFuture<?> watch = startDeadline();
+		try {
+			checkResultSet();
+			moveToFirstResult();
+			return mapper.map(resultSet, maxResults);
+		} catch (SQLException e) {
+			throw translate(e);
+		} finally {
+			endDeadline(watch);
+		}
+	}
+
 	/**
 	 * @return a list of Row object.
 	 * @throws SQLException
 	 *             if any JDBC error occurs
 	 */
 	public List<Row> getResultList() throws SQLException {
-		checkResultSet();
-		return createRowList();
+		ScheduledFuture<?> watch = startDeadline();
+		try {
+			checkResultSet();
+			return createRowList();
+		} catch (SQLException e) {
+			throw translate(e);
+		} finally {
+			endDeadline(watch);
+		}
+	}
+
+	/**
+	 * Do a PreparedStatement.execute(), used when the statement may return
+	 * several results.
+	 * 
+	 * @return true if the first result is a ResultSet
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	boolean execute() throws SQLException {
+		ScheduledFuture<?> watch = startDeadline();
+		try {
+			if (transaction != null)
+				transaction.touch(this);
+			return statement.execute();
+		} catch (SQLException e) {
+			throw translate(e);
+		} finally {
+			endDeadline(watch);
+		}
+	}
+
+	/**
+	 * Map one of the results returned by execute(). The ResultSet is closed.
+	 * 
+	 * @param rs
+	 *            a ResultSet returned by the statement
+	 * @param beanClass
+	 *            the class of the POJO, or Row.class
+	 * @return a list of POJO (or Row)
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	@SuppressWarnings("unchecked")
+	<T> List<T> map(ResultSet rs, Class<T> beanClass) throws Exception {
+		resultSet = rs;
+		try {
+			if (beanClass == Row.class)
+				return (List<T>) createRowList();
+			return createBeanList(new BeanMapping<T>(beanClass));
+		} finally {
+			ConnectionManager.close(resultSet, null, null);
+			resultSet = null;
+		}
 	}
 
 	/**
@@ -284,7 +896,16 @@ public class Query {
 	 *             if any JDBC error occurs
 	 */
 	public int update() throws SQLException {
-		return statement.executeUpdate();
+		ScheduledFuture<?> watch = startDeadline();
+		try {
+			if (transaction != null)
+				transaction.touch(this);
+			return statement.executeUpdate();
+		} catch (SQLException e) {
+			throw translate(e);
+		} finally {
+			endDeadline(watch);
+		}
 	}
 
 	/**
@@ -319,6 +940,14 @@ public class Query {
 	 *             if any JDBC error occurs
 	 */
 	public ResultSet getResultSet() throws SQLException {
+		if (resultSet == null) {
+			if (deadline == null)
+				resetQueryTimeout();
+			else {
+				deadline.setQueryTimeout(statement);
+				queryTimeoutSet = true;
+			}
+		}
 		checkResultSet();
 		return resultSet;
 	}
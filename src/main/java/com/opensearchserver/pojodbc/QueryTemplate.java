@@ -0,0 +1,281 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * An immutable description of a query, defined once and executed in any
+ * transaction.
+ * <p>
+ * The template holds the SQL, the number and the types of the parameters,
+ * the paginated SQL, the class of the POJO and the matching of the columns
+ * to its properties (resolved at the first execution). A template is thread
+ * safe and can be a static constant. Each execution reuses the statement
+ * already prepared for the same SQL in the transaction (see
+ * Transaction.prepareCached), so the per-call work is limited to binding,
+ * executing and mapping.
+ * </p>
+ * <p>
+ * The lists returned remain usable until the transaction is closed, even
+ * when the template is executed again in the same transaction.
+ * </p>
+ *
+ * <pre>
+ * static final QueryTemplate&lt;User&gt; USERS_BY_STATUS = QueryTemplate.of(
+ * 		&quot;SELECT * FROM user WHERE status=? ORDER BY id&quot;, User.class)
+ * 		.withPagination(QueryTemplate.Pagination.LIMIT_OFFSET);
+ * 
+ * List&lt;User&gt; users = USERS_BY_STATUS.executePage(transaction, 0, 20, &quot;open&quot;);
+ * </pre>
+ *
+ * @param <T>
+ *            the class of the POJO, or Row
+ */
+public final class QueryTemplate<T> {
+
+	/**
+	 * How a page of results is requested
+	 */
+	public enum Pagination {
+
+		/**
+		 * The rows before the page are skipped by the client
+		 * (Query.setFirstResult)
+		 */
+		NONE(null),
+
+		/**
+		 * "LIMIT ? OFFSET ?" is appended to the SQL (MySQL, PostgreSQL, H2,
+		 * SQLite, ...)
+		 */
+		LIMIT_OFFSET(" LIMIT ? OFFSET ?"),
+
+		/**
+		 * "OFFSET ? ROWS FETCH NEXT ? ROWS ONLY" is appended to the SQL
+		 * (SQL:2008, Oracle 12c, SQL Server 2012, Derby, ...)
+		 */
+		OFFSET_FETCH(" OFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+
+		private final String suffix;
+
+		private Pagination(String suffix) {
+			this.suffix = suffix;
+		}
+	}
+
+	private final String sql;
+	private final String pageSql;
+	private final Class<T> beanClass;
+	private final BeanMapping<T> mapping;
+	private final int parameterCount;
+	private final int[] parameterTypes;
+	private final Pagination pagination;
+
+	private QueryTemplate(String sql, Class<T> beanClass,
+			BeanMapping<T> mapping, int parameterCount, int[] parameterTypes,
+			Pagination pagination) {
+		this.sql = sql;
+		this.beanClass = beanClass;
+		this.mapping = mapping;
+		this.parameterCount = parameterCount;
+		this.parameterTypes = parameterTypes;
+		this.pagination = pagination;
+		this.pageSql = pagination.suffix == null ? sql : sql
+				+ pagination.suffix;
+	}
+
+	/**
+	 * @param sql
+	 *            the native SQL query
+	 * @param beanClass
+	 *            the class of the POJO, or Row.class
+	 * @return a new template without pagination
+	 */
+	public static <T> QueryTemplate<T> of(String sql, Class<T> beanClass) {
+		return new QueryTemplate<T>(sql, beanClass,
+				beanClass == Row.class ? null : new BeanMapping<T>(beanClass),
+				countParameters(sql), null, Pagination.NONE);
+	}
+
+	/**
+	 * @param pagination
+	 *            how executePage requests a page
+	 * @return a new template using the pagination
+	 */
+	public QueryTemplate<T> withPagination(Pagination pagination) {
+		return new QueryTemplate<T>(sql, beanClass, mapping, parameterCount,
+				parameterTypes, pagination);
+	}
+
+	/**
+	 * Declare the SQL types of the parameters. The parameters are then bound
+	 * with setObject(index, value, type), and the null values with
+	 * setNull(index, type). Without declared types, the parameters (null
+	 * included) are bound with setObject(index, value).
+	 *
+	 * @param sqlTypes
+	 *            the java.sql.Types of each parameter
+	 * @return a new template using the types
+	 */
+	public QueryTemplate<T> withParameterTypes(int... sqlTypes) {
+		if (sqlTypes.length != parameterCount)
+			throw new IllegalArgumentException("Expected " + parameterCount
+					+ " parameter types, got " + sqlTypes.length);
+		return new QueryTemplate<T>(sql, beanClass, mapping, parameterCount,
+				sqlTypes.clone(), pagination);
+	}
+
+	/**
+	 * Count the parameter markers outside of the quoted strings and
+	 * identifiers
+	 */
+	static int countParameters(String sql) {
+		int count = 0;
+		char quote = 0;
+		for (int i = 0; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '\'' || c == '"')
+				quote = c;
+			else if (c == '?')
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the native SQL query
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return the number of parameters of the SQL query
+	 */
+	public int getParameterCount() {
+		return parameterCount;
+	}
+
+	private int bind(PreparedStatement statement, Object[] parameters)
+			throws SQLException {
+		if (parameters.length != parameterCount)
+			throw new SQLException("Expected " + parameterCount
+					+ " parameters, got " + parameters.length + ": " + sql);
+		for (int i = 0; i < parameters.length; i++) {
+			Object parameter = parameters[i];
+			if (parameterTypes == null)
+				statement.setObject(i + 1, parameter);
+			else if (parameter == null)
+				statement.setNull(i + 1, parameterTypes[i]);
+			else
+				statement.setObject(i + 1, parameter, parameterTypes[i]);
+		}
+		return parameters.length + 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<T> getResultList(Query query) throws Exception {
+		if (mapping == null)
+			return (List<T>) query.getResultList();
+		return query.getResultList(mapping);
+	}
+
+	/**
+	 * Execute the query and return every row.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param parameters
+	 *            the values of the parameters
+	 * @return the list of POJO (or Row)
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public List<T> execute(Transaction transaction, Object... parameters)
+			throws Exception {
+		Query query = transaction.prepareCached(sql);
+		bind(query.getStatement(), parameters);
+		query.setFirstResult(0);
+		query.setMaxResults(-1);
+		return getResultList(query);
+	}
+
+	/**
+	 * Execute the query and return one page of rows.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param firstResult
+	 *            the position of the first row
+	 * @param maxResults
+	 *            the maximum number of rows
+	 * @param parameters
+	 *            the values of the parameters
+	 * @return the list of POJO (or Row)
+	 * @throws Exception
+	 *             if any JDBC or mapping error occurs
+	 */
+	public List<T> executePage(Transaction transaction, int firstResult,
+			int maxResults, Object... parameters) throws Exception {
+		Query query = transaction.prepareCached(pageSql);
+		PreparedStatement statement = query.getStatement();
+		int index = bind(statement, parameters);
+		switch (pagination) {
+		case LIMIT_OFFSET:
+			statement.setInt(index++, maxResults);
+			statement.setInt(index++, firstResult);
+			query.setFirstResult(0);
+			break;
+		case OFFSET_FETCH:
+			statement.setInt(index++, firstResult);
+			statement.setInt(index++, maxResults);
+			query.setFirstResult(0);
+			break;
+		default:
+			query.setFirstResult(firstResult);
+			break;
+		}
+		query.setMaxResults(maxResults);
+		return getResultList(query);
+	}
+
+	/**
+	 * Execute an INSERT/UPDATE/DELETE statement.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param parameters
+	 *            the values of the parameters
+	 * @return the row count
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public int update(Transaction transaction, Object... parameters)
+			throws SQLException {
+		Query query = transaction.prepareCached(sql);
+		bind(query.getStatement(), parameters);
+		return query.update();
+	}
+}
@@ -18,6 +18,7 @@
  */
 package com.opensearchserver.pojodbc;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -36,16 +37,46 @@ public class Row {
 		columns = new Object[columnCount];
 	}
 
+	Row(Object[] columns) {
+		this.columns = columns;
+	}
+
 	protected Row(int columnCount, ResultSet rs) throws SQLException {
 		this(columnCount);
 		for (int columnIndex = 0; columnIndex < columnCount; columnIndex++)
 			columns[columnIndex] = rs.getObject(columnIndex + 1);
 	}
 
+	protected Row(int[] sqlTypes, ResultSet rs, long lobSpillThreshold)
+			throws SQLException {
+		this(sqlTypes.length);
+		for (int columnIndex = 0; columnIndex < sqlTypes.length; columnIndex++) {
+			int sqlType = sqlTypes[columnIndex];
+			if (!LobHandle.isLob(sqlType)) {
+				columns[columnIndex] = rs.getObject(columnIndex + 1);
+				continue;
+			}
+			try {
+				columns[columnIndex] = LobHandle.read(rs, columnIndex + 1,
+						sqlType, lobSpillThreshold);
+			} catch (IOException e) {
+				throw new SQLException(e);
+			}
+		}
+	}
+
+	long estimateSize() {
+		return RowCodec.estimateSize(columns);
+	}
+
 	public void set(int column, Object value) {
 		columns[column] = value;
 	}
 
+	int getColumnCount() {
+		return columns.length;
+	}
+
 	public Object get(int column) {
 		Object col = columns[column];
 		if (col == null)
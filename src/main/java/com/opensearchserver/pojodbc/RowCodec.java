@@ -0,0 +1,304 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * The compact binary format used to write column values outside of the heap.
+ * Each value is prefixed by a one byte tag. Common JDBC types are written in
+ * their native binary form, other Serializable objects use Java serialization.
+ * LOB values (LobHandle, Blob, Clob) are written with their whole content: a
+ * LobHandle is decoded as a LobHandle held in memory, a Blob as a byte array
+ * and a Clob as a String.
+ * <p>
+ * It also provides a rough estimation of the heap retained by column values.
+ * </p>
+ */
+final class RowCodec {
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static byte NULL = 0;
+	private final static byte STRING = 1;
+	private final static byte INTEGER = 2;
+	private final static byte LONG = 3;
+	private final static byte DOUBLE = 4;
+	private final static byte FLOAT = 5;
+	private final static byte SHORT = 6;
+	private final static byte BYTE = 7;
+	private final static byte BOOLEAN = 8;
+	private final static byte BIG_DECIMAL = 9;
+	private final static byte BIG_INTEGER = 10;
+	private final static byte TIMESTAMP = 11;
+	private final static byte SQL_DATE = 12;
+	private final static byte TIME = 13;
+	private final static byte DATE = 14;
+	private final static byte BYTES = 15;
+	private final static byte BINARY_LOB = 16;
+	private final static byte CHARACTER_LOB = 17;
+	private final static byte SERIALIZED = 127;
+
+	private RowCodec() {
+	}
+
+	/**
+	 * Estimate the heap size (in bytes) retained by a value.
+	 *
+	 * @param value
+	 *            a column value
+	 * @return an estimated size in bytes
+	 */
+	static long estimateSize(Object value) {
+		if (value == null)
+			return 8;
+		if (value instanceof String)
+			return 48 + 2 * ((String) value).length();
+		if (value instanceof byte[])
+			return 24 + ((byte[]) value).length;
+		if (value instanceof BigDecimal || value instanceof BigInteger)
+			return 64;
+		if (value instanceof Date)
+			return 32;
+		if (value instanceof LobHandle)
+			return 64;
+		return 24;
+	}
+
+	/**
+	 * Estimate the heap size (in bytes) retained by a row of column values.
+	 *
+	 * @param values
+	 *            the column values
+	 * @return an estimated size in bytes
+	 */
+	static long estimateSize(Object[] values) {
+		long size = 16 + 8 * values.length;
+		for (Object value : values)
+			size += estimateSize(value);
+		return size;
+	}
+
+	/**
+	 * Write the column values
+	 *
+	 * @param values
+	 *            the column values
+	 * @param output
+	 *            the destination
+	 * @throws IOException
+	 *             if a value cannot be encoded
+	 */
+	static void encode(Object[] values, DataOutputStream output)
+			throws IOException {
+		output.writeInt(values.length);
+		for (Object value : values)
+			encode(value, output);
+	}
+
+	private static void writeBytes(byte[] bytes, DataOutputStream output)
+			throws IOException {
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static void encode(Object value, DataOutputStream output)
+			throws IOException {
+		if (value == null) {
+			output.writeByte(NULL);
+		} else if (value instanceof String) {
+			output.writeByte(STRING);
+			writeBytes(((String) value).getBytes(UTF8), output);
+		} else if (value instanceof Integer) {
+			output.writeByte(INTEGER);
+			output.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			output.writeByte(LONG);
+			output.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			output.writeByte(DOUBLE);
+			output.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			output.writeByte(FLOAT);
+			output.writeFloat((Float) value);
+		} else if (value instanceof Short) {
+			output.writeByte(SHORT);
+			output.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			output.writeByte(BYTE);
+			output.writeByte((Byte) value);
+		} else if (value instanceof Boolean) {
+			output.writeByte(BOOLEAN);
+			output.writeBoolean((Boolean) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal bd = (BigDecimal) value;
+			output.writeByte(BIG_DECIMAL);
+			output.writeInt(bd.scale());
+			writeBytes(bd.unscaledValue().toByteArray(), output);
+		} else if (value instanceof BigInteger) {
+			output.writeByte(BIG_INTEGER);
+			writeBytes(((BigInteger) value).toByteArray(), output);
+		} else if (value instanceof Timestamp) {
+			Timestamp ts = (Timestamp) value;
+			output.writeByte(TIMESTAMP);
+			output.writeLong(ts.getTime());
+			output.writeInt(ts.getNanos());
+		} else if (value instanceof java.sql.Date) {
+			output.writeByte(SQL_DATE);
+			output.writeLong(((Date) value).getTime());
+		} else if (value instanceof Time) {
+			output.writeByte(TIME);
+			output.writeLong(((Date) value).getTime());
+		} else if (value.getClass() == Date.class) {
+			output.writeByte(DATE);
+			output.writeLong(((Date) value).getTime());
+		} else if (value instanceof byte[]) {
+			output.writeByte(BYTES);
+			writeBytes((byte[]) value, output);
+		} else if (value instanceof LobHandle || value instanceof Blob
+				|| value instanceof Clob) {
+			try {
+				encodeLob(value, output);
+			} catch (SQLException e) {
+				throw new IOException(e);
+			}
+		} else if (value instanceof Serializable) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+				oos.writeObject(value);
+			}
+			output.writeByte(SERIALIZED);
+			writeBytes(baos.toByteArray(), output);
+		} else
+			throw new NotSerializableException(value.getClass().getName());
+	}
+
+	private static void encodeLob(Object value, DataOutputStream output)
+			throws IOException, SQLException {
+		if (value instanceof Blob) {
+			Blob blob = (Blob) value;
+			output.writeByte(BYTES);
+			writeBytes(blob.getBytes(1, (int) blob.length()), output);
+		} else if (value instanceof Clob) {
+			Clob clob = (Clob) value;
+			output.writeByte(STRING);
+			writeBytes(clob.getSubString(1, (int) clob.length()).getBytes(UTF8),
+					output);
+		} else if (((LobHandle) value).isCharacter()) {
+			output.writeByte(CHARACTER_LOB);
+			writeBytes(((LobHandle) value).getString().getBytes(UTF8), output);
+		} else {
+			output.writeByte(BINARY_LOB);
+			writeBytes(((LobHandle) value).getBytes(), output);
+		}
+	}
+
+	/**
+	 * Read the column values
+	 *
+	 * @param buffer
+	 *            the source, positioned on the first byte of the row
+	 * @return the column values
+	 * @throws IOException
+	 *             if a value cannot be decoded
+	 */
+	static Object[] decode(ByteBuffer buffer) throws IOException {
+		Object[] values = new Object[buffer.getInt()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = decodeValue(buffer);
+		return values;
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static Object decodeValue(ByteBuffer buffer) throws IOException {
+		byte tag = buffer.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(buffer), UTF8);
+		case INTEGER:
+			return buffer.getInt();
+		case LONG:
+			return buffer.getLong();
+		case DOUBLE:
+			return buffer.getDouble();
+		case FLOAT:
+			return buffer.getFloat();
+		case SHORT:
+			return buffer.getShort();
+		case BYTE:
+			return buffer.get();
+		case BOOLEAN:
+			return buffer.get() != 0;
+		case BIG_DECIMAL:
+			int scale = buffer.getInt();
+			return new BigDecimal(new BigInteger(readBytes(buffer)), scale);
+		case BIG_INTEGER:
+			return new BigInteger(readBytes(buffer));
+		case TIMESTAMP:
+			Timestamp ts = new Timestamp(buffer.getLong());
+			ts.setNanos(buffer.getInt());
+			return ts;
+		case SQL_DATE:
+			return new java.sql.Date(buffer.getLong());
+		case TIME:
+			return new Time(buffer.getLong());
+		case DATE:
+			return new Date(buffer.getLong());
+		case BYTES:
+			return readBytes(buffer);
+		case BINARY_LOB:
+			return LobHandle.of(readBytes(buffer));
+		case CHARACTER_LOB:
+			return LobHandle.of(new String(readBytes(buffer), UTF8));
+		case SERIALIZED:
+			try (ObjectInputStream ois = new ObjectInputStream(
+					new ByteArrayInputStream(readBytes(buffer)))) {
+				return ois.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		default:
+			throw new IOException("Unknown tag: " + tag);
+		}
+	}
+}
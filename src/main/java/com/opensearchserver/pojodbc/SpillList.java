@@ -0,0 +1,265 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A read-only result list with a memory budget.
+ * <p>
+ * Rows are kept in the heap until the estimated size of the list exceeds the
+ * budget. The following rows are written in a compact binary format into a
+ * temporary file. Those rows are decoded from a memory-mapped view of the file
+ * each time get(index) is called.
+ * </p>
+ * <p>
+ * The temporary file is deleted when the list is closed. The lists returned
+ * by a Query are closed when the Transaction is closed, unless the owner of
+ * the list closes it earlier.
+ * </p>
+ *
+ * @param <T>
+ *            the type of the elements (a POJO or a Row)
+ */
+public class SpillList<T> extends AbstractList<T> implements RandomAccess,
+		Closeable {
+
+	/**
+	 * Build an element from the column values.
+	 *
+	 * @param <T>
+	 *            the type of the elements
+	 */
+	interface Decoder<T> {
+		T decode(Object[] values) throws Exception;
+	}
+
+	private final static int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final static long SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	static protected Logger logger = Logger.getLogger(SpillList.class
+			.getCanonicalName());
+
+	private final long memoryBudget;
+	private final Decoder<T> decoder;
+	private final List<T> heapList;
+	private long heapSize;
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private ByteBuffer writeBuffer;
+	private ByteArrayOutputStream rowBytes;
+	private DataOutputStream rowOutput;
+	private long[] offsets;
+	private int spilledCount;
+	private long fileSize;
+
+	private MappedByteBuffer segment;
+	private long segmentStart;
+
+	SpillList(long memoryBudget, Decoder<T> decoder) {
+		this.memoryBudget = memoryBudget;
+		this.decoder = decoder;
+		this.heapList = new ArrayList<T>();
+		this.heapSize = 0;
+		this.spilledCount = 0;
+		this.fileSize = 0;
+	}
+
+	/**
+	 * Append a row.
+	 *
+	 * @param values
+	 *            the column values of the row
+	 * @throws Exception
+	 *             if the row cannot be decoded or written
+	 */
+	void append(Object[] values) throws Exception {
+		if (file == null) {
+			long size = RowCodec.estimateSize(values);
+			if (heapSize + size <= memoryBudget) {
+				heapList.add(decoder.decode(values));
+				heapSize += size;
+				return;
+			}
+			openFile();
+		}
+		rowBytes.reset();
+		RowCodec.encode(values, rowOutput);
+		rowOutput.flush();
+		// The content of the LOB is now in the file
+		for (Object value : values)
+			if (value instanceof LobHandle)
+				((LobHandle) value).close();
+		byte[] bytes = rowBytes.toByteArray();
+		if (spilledCount == offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		offsets[spilledCount++] = fileSize;
+		int pos = 0;
+		while (pos < bytes.length) {
+			if (!writeBuffer.hasRemaining())
+				flush();
+			int len = Math.min(writeBuffer.remaining(), bytes.length - pos);
+			writeBuffer.put(bytes, pos, len);
+			pos += len;
+		}
+		fileSize += bytes.length;
+	}
+
+	private void openFile() throws IOException {
+		file = File.createTempFile("pojodbc-list", ".tmp");
+		file.deleteOnExit();
+		if (logger.isLoggable(Level.FINE))
+			logger.fine("Memory budget of " + memoryBudget
+					+ " bytes exceeded after " + heapList.size()
+					+ " rows, spill to " + file);
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		rowBytes = new ByteArrayOutputStream();
+		rowOutput = new DataOutputStream(rowBytes);
+		offsets = new long[1024];
+	}
+
+	private void flush() throws IOException {
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining())
+			channel.write(writeBuffer);
+		writeBuffer.clear();
+	}
+
+	/**
+	 * Called when all the rows have been appended.
+	 *
+	 * @throws IOException
+	 *             if the buffer cannot be written
+	 */
+	void seal() throws IOException {
+		if (channel == null)
+			return;
+		flush();
+		writeBuffer = null;
+		rowBytes = null;
+		rowOutput = null;
+	}
+
+	/**
+	 * @return true if some rows have been written to disk
+	 */
+	public boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * @return the number of rows kept in the heap
+	 */
+	public int getHeapRowCount() {
+		return heapList.size();
+	}
+
+	/**
+	 * @return the size of the temporary file in bytes
+	 */
+	public long getSpilledSize() {
+		return fileSize;
+	}
+
+	private ByteBuffer getRowBuffer(int spilledIndex) throws IOException {
+		long start = offsets[spilledIndex];
+		long end = spilledIndex + 1 < spilledCount ? offsets[spilledIndex + 1]
+				: fileSize;
+		if (segment == null || start < segmentStart
+				|| end > segmentStart + segment.capacity()) {
+			long size = Math.min(Math.max(SEGMENT_SIZE, end - start), fileSize
+					- start);
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			segmentStart = start;
+		}
+		ByteBuffer buffer = segment.duplicate();
+		buffer.position((int) (start - segmentStart));
+		buffer.limit((int) (end - segmentStart));
+		return buffer;
+	}
+
+	@Override
+	public T get(int index) {
+		if (index < heapList.size())
+			return heapList.get(index);
+		int spilledIndex = index - heapList.size();
+		if (spilledIndex >= spilledCount)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size());
+		synchronized (this) {
+			if (channel == null)
+				throw new IllegalStateException("The list is closed");
+			try {
+				return decoder.decode(RowCodec
+						.decode(getRowBuffer(spilledIndex)));
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return heapList.size() + spilledCount;
+	}
+
+	/**
+	 * Close and delete the temporary file.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			segment = null;
+			if (channel == null)
+				return;
+			try {
+				channel.close();
+				raf.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, e.getMessage(), e);
+			}
+			channel = null;
+			raf = null;
+			if (!file.delete())
+				file.deleteOnExit();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * De-duplicate the strings of the low-cardinality columns.
+ * <p>
+ * When a StringDictionary is set on a Query, each column of a result gets its
+ * own dictionary: the repeated values of the column resolve to one String
+ * instance. The column dictionaries are backed by this shared and bounded
+ * dictionary, so the same value resolves to the same instance across
+ * results. The dictionary of a column is switched off when the column does
+ * not repeat its values enough (too many distinct values).
+ * </p>
+ * <p>
+ * The bean lists are mapped with the Introspector (not with the generated
+ * BeanMapper) when a StringDictionary is used.
+ * </p>
+ *
+ * <pre>
+ * connectionManager.setStringDictionary(new StringDictionary(100000));
+ * </pre>
+ */
+public class StringDictionary {
+
+	private final int capacity;
+	private final ConcurrentHashMap<String, String> strings;
+	private volatile int maxLength;
+	private volatile int sampleSize;
+	private volatile float maxDistinctRatio;
+	private volatile int maxColumnSize;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of strings shared across results, or 0
+	 *            to de-duplicate only within a result
+	 */
+	public StringDictionary(int capacity) {
+		this.capacity = capacity;
+		this.strings = new ConcurrentHashMap<String, String>();
+		this.maxLength = 64;
+		this.sampleSize = 1024;
+		this.maxDistinctRatio = 0.5f;
+		this.maxColumnSize = 65536;
+	}
+
+	/**
+	 * @param maxLength
+	 *            the longer strings are not de-duplicated (default is 64)
+	 */
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Set the cardinality detection. Every sampleSize values of a column, the
+	 * dictionary of the column is switched off if the number of distinct
+	 * values exceeds maxDistinctRatio times the number of values, or if it
+	 * exceeds maxColumnSize.
+	 *
+	 * @param sampleSize
+	 *            the number of values between two checks (default is 1024)
+	 * @param maxDistinctRatio
+	 *            the maximum ratio of distinct values (default is 0.5)
+	 * @param maxColumnSize
+	 *            the maximum number of distinct values of a column (default
+	 *            is 65536)
+	 */
+	public void setCardinalityCutoff(int sampleSize, float maxDistinctRatio,
+			int maxColumnSize) {
+		this.sampleSize = sampleSize;
+		this.maxDistinctRatio = maxDistinctRatio;
+		this.maxColumnSize = maxColumnSize;
+	}
+
+	/**
+	 * @return the number of shared strings
+	 */
+	public int size() {
+		return strings.size();
+	}
+
+	/**
+	 * Remove the shared strings
+	 */
+	public void clear() {
+		strings.clear();
+	}
+
+	/**
+	 * @param string
+	 *            a string
+	 * @return the shared instance equal to the string
+	 */
+	public String intern(String string) {
+		String canonical = strings.get(string);
+		if (canonical != null)
+			return canonical;
+		if (strings.size() >= capacity)
+			return string;
+		canonical = strings.putIfAbsent(string, string);
+		return canonical == null ? string : canonical;
+	}
+
+	/**
+	 * @param columnCount
+	 *            the number of columns of the result
+	 * @return the column dictionaries of one result
+	 */
+	Columns newColumns(int columnCount) {
+		return new Columns(columnCount);
+	}
+
+	/**
+	 * The dictionaries of the columns of one result. Used by a single thread.
+	 */
+	class Columns {
+
+		private final HashMap<String, String>[] dictionaries;
+		private final int[] counts;
+		private final boolean[] checked;
+		private final int maxLength;
+		private final int sampleSize;
+		private final float maxDistinctRatio;
+		private final int maxColumnSize;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Columns(int columnCount) {
+			dictionaries = new HashMap[columnCount];
+			for (int i = 0; i < columnCount; i++)
+				dictionaries[i] = new HashMap<String, String>();
+			counts = new int[columnCount];
+			checked = new boolean[columnCount];
+			maxLength = StringDictionary.this.maxLength;
+			sampleSize = StringDictionary.this.sampleSize;
+			maxDistinctRatio = StringDictionary.this.maxDistinctRatio;
+			maxColumnSize = StringDictionary.this.maxColumnSize;
+		}
+
+		/**
+		 * @param column
+		 *            the index of the column (starting at 0)
+		 * @param value
+		 *            the value read from the column
+		 * @return the canonical instance of the value
+		 */
+		Object intern(int column, Object value) {
+			HashMap<String, String> dictionary = dictionaries[column];
+			if (dictionary == null || !(value instanceof String))
+				return value;
+			String string = (String) value;
+			if (string.length() > maxLength)
+				return string;
+			String canonical = dictionary.get(string);
+			if (canonical == null) {
+				// The shared dictionary is fed only by the columns which
+				// passed the cardinality check
+				canonical = checked[column] ? StringDictionary.this
+						.intern(string) : strings.get(string);
+				if (canonical == null)
+					canonical = string;
+				dictionary.put(canonical, canonical);
+			}
+			if (++counts[column] % sampleSize == 0)
+				check(column);
+			return canonical;
+		}
+
+		private void check(int column) {
+			HashMap<String, String> dictionary = dictionaries[column];
+			int distinct = dictionary.size();
+			if (distinct > maxColumnSize
+					|| distinct > counts[column] * maxDistinctRatio)
+				dictionaries[column] = null;
+			else if (!checked[column]) {
+				checked[column] = true;
+				for (Map.Entry<String, String> entry : dictionary.entrySet())
+					entry.setValue(StringDictionary.this.intern(entry
+							.getValue()));
+			}
+		}
+
+		/**
+		 * Called at the end of the result: the columns of a result smaller
+		 * than the sample size feed the shared dictionary if they pass the
+		 * cardinality check.
+		 */
+		void end() {
+			for (int i = 0; i < dictionaries.length; i++)
+				if (dictionaries[i] != null && !checked[i] && counts[i] > 0)
+					check(i);
+		}
+	}
+}
@@ -18,10 +18,26 @@
  */
 package com.opensearchserver.pojodbc;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.opensearchserver.pojodbc.connection.ConnectionManager;
 
@@ -55,79 +71,519 @@ import com.opensearchserver.pojodbc.connection.ConnectionManager;
  */
 public class Transaction {
 
+	static protected Logger logger = Logger.getLogger(Transaction.class
+			.getCanonicalName());
+
+	private final ConnectionManager connectionManager;
 	private Connection cnx;
-	private HashSet<Query> queries;
+	private LinkedHashMap<Query, Boolean> queries;
+	private volatile int maxOpenQueries;
+	private HashMap<String, Query> cachedQueries;
+	private List<Closeable> results;
+	private volatile Deadline deadline;
+	private HashSet<String> updatedTables;
+	private final Transaction outer;
+	private boolean rollbackOnly;
+	private ConnectionManager scope;
+	private Transaction previousScope;
+	private final WorkloadRecorder recorder;
+	private final long recordId;
 
 	public Transaction(Connection cnx, boolean autoCommit,
 			Integer transactionIsolation) throws SQLException {
+		this(null, cnx, autoCommit, transactionIsolation);
+	}
+
+	/**
+	 * @param connectionManager
+	 *            the ConnectionManager providing the settings (fetch size
+	 *            policy, ...) applied to the queries, or null
+	 * @param cnx
+	 *            the database connection
+	 * @param autoCommit
+	 *            Enable or disable autocommit
+	 * @param transactionIsolation
+	 *            java.sql.Connection.TRANSACTION..., or null
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public Transaction(ConnectionManager connectionManager, Connection cnx,
+			boolean autoCommit, Integer transactionIsolation)
+			throws SQLException {
+		this.connectionManager = connectionManager;
 		this.cnx = cnx;
+		this.outer = null;
+		this.maxOpenQueries = connectionManager == null ? ConnectionManager.DEFAULT_MAX_OPEN_QUERIES
+				: connectionManager.getMaxOpenQueries();
 		if (transactionIsolation != null)
 			cnx.setTransactionIsolation(transactionIsolation);
 		cnx.setAutoCommit(autoCommit);
+		this.recorder = connectionManager == null ? null : connectionManager
+				.getWorkloadRecorder();
+		this.recordId = recorder == null ? 0 : recorder.begin(autoCommit,
+				transactionIsolation);
+	}
+
+	/**
+	 * Join an existing transaction. The connection is shared: commit and
+	 * close are left to the outermost transaction, rollback marks it as
+	 * rollback-only.
+	 * 
+	 * @param outer
+	 *            the transaction to join
+	 */
+	Transaction(Transaction outer) {
+		this.outer = outer.outer == null ? outer : outer.outer;
+		this.connectionManager = outer.connectionManager;
+		this.cnx = outer.cnx;
+		this.deadline = outer.deadline;
+		this.maxOpenQueries = outer.maxOpenQueries;
+		this.recorder = outer.recorder;
+		this.recordId = outer.recordId;
+	}
+
+	/**
+	 * Bind the transaction to the scope of the current thread
+	 */
+	void bindScope(ConnectionManager scope, Transaction previousScope) {
+		this.scope = scope;
+		this.previousScope = previousScope;
+	}
+
+	/**
+	 * @return the scoped transaction restored when this one is closed
+	 */
+	Transaction getPreviousScope() {
+		return previousScope;
+	}
+
+	/**
+	 * @return true if the transaction has been closed
+	 */
+	synchronized boolean isClosed() {
+		return cnx == null;
+	}
+
+	/**
+	 * @return the autocommit mode of the connection
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	boolean isAutoCommit() throws SQLException {
+		return cnx.getAutoCommit();
+	}
+
+	/**
+	 * @return true if this transaction joined an outer transaction
+	 */
+	public boolean isJoined() {
+		return outer != null;
+	}
+
+	/**
+	 * Mark the transaction so that the only possible outcome is a rollback.
+	 */
+	public void setRollbackOnly() {
+		if (outer != null) {
+			outer.setRollbackOnly();
+			return;
+		}
+		synchronized (this) {
+			rollbackOnly = true;
+		}
+	}
+
+	/**
+	 * @return true if the transaction (or one of its joined transactions) has
+	 *         been rolled back
+	 */
+	public boolean isRollbackOnly() {
+		if (outer != null)
+			return outer.isRollbackOnly();
+		synchronized (this) {
+			return rollbackOnly;
+		}
+	}
+
+	Connection getConnection() {
+		return cnx;
 	}
 
 	void closeQuery(Query query) {
 		synchronized (this) {
 			query.closeAll();
-			queries.remove(query);
+			if (queries != null)
+				queries.remove(query);
+			uncache(query);
 		}
 	}
 
-	private void closeQueries() {
+	void closeQueries() {
 		synchronized (this) {
 			if (queries == null)
 				return;
-			for (Query query : queries)
+			for (Query query : queries.keySet())
 				query.closeAll();
 			queries.clear();
+			cachedQueries = null;
+			closeResults();
+		}
+	}
+
+	/**
+	 * Take over the resources returned by a query which is closed or re-used
+	 * (SpillList, LobHandle). They remain usable until the queries of the
+	 * transaction are closed. The resources of a joined transaction are kept
+	 * by the outermost transaction.
+	 * 
+	 * @param resources
+	 *            the resources returned by the query
+	 */
+	void keepResults(List<? extends Closeable> resources) {
+		if (outer != null) {
+			outer.keepResults(resources);
+			return;
+		}
+		synchronized (this) {
+			if (cnx != null) {
+				if (results == null)
+					results = new ArrayList<Closeable>();
+				results.addAll(resources);
+				return;
+			}
+		}
+		for (Closeable resource : resources)
+			close(resource);
+	}
+
+	private void closeResults() {
+		if (results == null)
+			return;
+		for (Closeable resource : results)
+			close(resource);
+		results = null;
+	}
+
+	private static void close(Closeable resource) {
+		try {
+			resource.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, e.getMessage(), e);
 		}
 	}
 
+	private void uncache(Query query) {
+		if (cachedQueries != null && query.getSql() != null
+				&& cachedQueries.get(query.getSql()) == query)
+			cachedQueries.remove(query.getSql());
+	}
+
 	/**
-	 * Close all queries and the transaction. No commit or rollback are
-	 * performed.
+	 * Mark the query as recently used
+	 */
+	void touch(Query query) {
+		synchronized (this) {
+			if (queries != null)
+				queries.get(query);
+		}
+	}
+
+	/**
+	 * Set the maximum number of queries kept open by this transaction. When
+	 * the limit is reached, the least recently used query which is not in use
+	 * (no open ResultSet, no SpillList or streamed LOB returned by its last
+	 * execution) is closed. The limit may be exceeded when all the queries
+	 * are in use.
+	 * 
+	 * @param maxOpenQueries
+	 *            the maximum number of open queries, or 0 for no limit
+	 */
+	public void setMaxOpenQueries(int maxOpenQueries) {
+		this.maxOpenQueries = maxOpenQueries;
+	}
+
+	/**
+	 * @return the number of open statements of this transaction
+	 */
+	public int getOpenQueryCount() {
+		synchronized (this) {
+			return queries == null ? 0 : queries.size();
+		}
+	}
+
+	/**
+	 * @return the number of open ResultSet of this transaction
+	 */
+	public int getOpenCursorCount() {
+		synchronized (this) {
+			if (queries == null)
+				return 0;
+			int count = 0;
+			for (Query query : queries.keySet())
+				if (query.hasResultSet())
+					count++;
+			return count;
+		}
+	}
+
+	/**
+	 * Close all queries and the transaction, with the SpillList and LobHandle
+	 * they returned. No commit or rollback are performed. A joined transaction only closes its queries, the connection
+	 * is closed by the outermost transaction.
 	 */
 	public void close() {
 		synchronized (this) {
 			if (cnx == null)
 				return;
+			if (scope != null) {
+				TransactionScope.unbind(scope, this, previousScope);
+				scope = null;
+				previousScope = null;
+			}
+			if (outer != null) {
+				closeQueries();
+				cnx = null;
+				return;
+			}
 			synchronized (cnx) {
 				closeQueries();
 				ConnectionManager.close(null, null, cnx);
 				cnx = null;
 			}
+			if (recorder != null)
+				recorder.end(recordId);
 		}
 	}
 
 	/**
-	 * Usual JDBC/SQL transaction rollback
+	 * Usual JDBC/SQL transaction rollback. A joined transaction marks the
+	 * outermost transaction as rollback-only.
 	 * 
 	 * @throws SQLException
 	 *             if any JDBC error occurs
 	 */
 	public void rollback() throws SQLException {
+		if (outer != null) {
+			outer.setRollbackOnly();
+			return;
+		}
 		synchronized (cnx) {
 			cnx.rollback();
 		}
+		if (recorder != null)
+			recorder.rollback(recordId);
+		synchronized (this) {
+			rollbackOnly = false;
+		}
+		invalidateUpdatedTables();
 	}
 
 	/**
-	 * Usual JDBC/SQL transaction commit
+	 * Usual JDBC/SQL transaction commit. The commit of a joined transaction
+	 * is done by the outermost transaction.
 	 * 
 	 * @throws SQLException
-	 *             if any JDBC error occurs
+	 *             if any JDBC error occurs, or if the transaction is
+	 *             rollback-only (the transaction is then rolled back)
 	 */
 	public void commit() throws SQLException {
+		if (outer != null)
+			return;
+		if (isRollbackOnly()) {
+			rollback();
+			throw new SQLException(
+					"Transaction rolled back because it has been marked as rollback-only");
+		}
 		synchronized (cnx) {
 			cnx.commit();
 		}
+		if (recorder != null)
+			recorder.commit(recordId);
+		invalidateUpdatedTables();
+	}
+
+	/**
+	 * Create an unnamed savepoint in the current transaction
+	 * 
+	 * @return the new Savepoint
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public Savepoint setSavepoint() throws SQLException {
+		synchronized (cnx) {
+			return cnx.setSavepoint();
+		}
+	}
+
+	/**
+	 * Undo all changes made after the given savepoint
+	 * 
+	 * @param savepoint
+	 *            the savepoint to roll back to
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public void rollback(Savepoint savepoint) throws SQLException {
+		synchronized (cnx) {
+			cnx.rollback(savepoint);
+		}
+	}
+
+	/**
+	 * Remove the savepoint from the current transaction
+	 * 
+	 * @param savepoint
+	 *            the savepoint to release
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		synchronized (cnx) {
+			cnx.releaseSavepoint(savepoint);
+		}
+	}
+
+	/**
+	 * Set the deadline applied to the queries of this transaction (including
+	 * the queries already prepared).
+	 * 
+	 * @param deadline
+	 *            the deadline, or null
+	 */
+	public void setDeadline(Deadline deadline) {
+		synchronized (this) {
+			this.deadline = deadline;
+			if (queries != null)
+				for (Query query : queries.keySet())
+					query.setDeadline(deadline);
+		}
+	}
+
+	/**
+	 * @return the deadline of this transaction, or null
+	 */
+	public Deadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Called when a statement may have modified some rows. The entries of the
+	 * EntityCache mapped to the table are invalidated now, and again at the
+	 * end of the transaction.
+	 * 
+	 * @param sql
+	 *            the executed statement
+	 */
+	void updated(String sql) {
+		if (outer != null) {
+			outer.updated(sql);
+			return;
+		}
+		EntityCache entityCache = connectionManager == null ? null
+				: connectionManager.getEntityCache();
+		if (entityCache == null)
+			return;
+		String table = EntityCache.getWrittenTable(sql);
+		if (table == null)
+			return;
+		entityCache.invalidateTable(table);
+		synchronized (this) {
+			if (updatedTables == null)
+				updatedTables = new HashSet<String>();
+			updatedTables.add(table);
+		}
+	}
+
+	private void invalidateUpdatedTables() {
+		HashSet<String> tables;
+		synchronized (this) {
+			tables = updatedTables;
+			updatedTables = null;
+		}
+		if (tables == null)
+			return;
+		EntityCache entityCache = connectionManager.getEntityCache();
+		if (entityCache != null)
+			entityCache.invalidateTables(tables);
+	}
+
+	/**
+	 * Wrap a new statement: the executions of a write statement invalidate the
+	 * EntityCache, and the WorkloadRecorder (if any) records the statement.
+	 */
+	private PreparedStatement record(PreparedStatement statement, String sql) {
+		EntityCache entityCache = connectionManager == null ? null
+				: connectionManager.getEntityCache();
+		if (entityCache != null && EntityCache.getWrittenTable(sql) != null)
+			statement = (PreparedStatement) Proxy.newProxyInstance(
+					PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class },
+					new InvalidatingHandler(statement, sql));
+		return recorder == null ? statement : recorder.wrap(statement,
+				recordId, sql);
+	}
+
+	private class InvalidatingHandler implements InvocationHandler {
+
+		private final PreparedStatement statement;
+		private final String sql;
+
+		private InvalidatingHandler(PreparedStatement statement, String sql) {
+			this.statement = statement;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			Object result;
+			try {
+				result = method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			if (method.getName().startsWith("execute"))
+				updated(sql);
+			return result;
+		}
 	}
 
 	private void addQuery(Query query) {
+		if (connectionManager != null) {
+			query.setFetchSizePolicy(connectionManager.getFetchSizePolicy());
+			query.setMemoryBudget(connectionManager.getMemoryBudget());
+			query.setStringDictionary(connectionManager.getStringDictionary());
+		}
+		query.setDeadline(deadline);
+		query.setTransaction(this);
 		synchronized (this) {
 			if (queries == null)
-				queries = new HashSet<Query>();
-			queries.add(query);
+				queries = new LinkedHashMap<Query, Boolean>(16, 0.75f, true) {
+
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(
+							Map.Entry<Query, Boolean> eldest) {
+						int max = maxOpenQueries;
+						if (max <= 0 || size() <= max)
+							return false;
+						// The last entry is the query just added
+						int count = size() - 1;
+						Iterator<Query> iterator = keySet().iterator();
+						while (count-- > 0) {
+							Query query = iterator.next();
+							if (query.isInUse())
+								continue;
+							iterator.remove();
+							query.closeAll();
+							uncache(query);
+							break;
+						}
+						return false;
+					}
+				};
+			queries.put(query, Boolean.TRUE);
 		}
 	}
 
@@ -141,11 +597,52 @@ public class Transaction {
 	 *             if any JDBC error occurs
 	 */
 	public Query prepare(String sql) throws SQLException {
-		Query query = new Query(cnx.prepareStatement(sql));
+		Query query = new Query(record(cnx.prepareStatement(sql), sql), sql);
 		addQuery(query);
 		return query;
 	}
 
+	/**
+	 * Return the Query prepared by a previous call with the same SQL in this
+	 * transaction, or a new Query. A reused Query is released (see
+	 * Query.reUse); its parameters and settings are those of the previous
+	 * use.
+	 * 
+	 * @param sql
+	 *            The native SQL query
+	 * @return a Query instance
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public Query prepareCached(String sql) throws SQLException {
+		synchronized (this) {
+			Query query = cachedQueries == null ? null : cachedQueries
+					.get(sql);
+			if (query != null && !query.isClosed()) {
+				query.reUse();
+				touch(query);
+				return query;
+			}
+		}
+		Query query = prepare(sql);
+		synchronized (this) {
+			if (cachedQueries == null)
+				cachedQueries = new HashMap<String, Query>();
+			cachedQueries.put(sql, query);
+		}
+		return query;
+	}
+
+	/**
+	 * Create a new MultiQuery, to execute several statements in one round
+	 * trip
+	 * 
+	 * @return a new MultiQuery instance
+	 */
+	public MultiQuery prepareMulti() {
+		return new MultiQuery(this);
+	}
+
 	/**
 	 * Create a new Query with autogeneratedkey flag
 	 * 
@@ -156,8 +653,9 @@ public class Transaction {
 	 *             if any JDBC error occurs
 	 */
 	public Query prepareWithKeys(String sql) throws SQLException {
-		Query query = new Query(cnx.prepareStatement(sql,
-				Statement.RETURN_GENERATED_KEYS));
+		Query query = new Query(record(
+				cnx.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS),
+				sql), sql);
 		addQuery(query);
 		return query;
 	}
@@ -182,15 +680,16 @@ public class Transaction {
 	 */
 	public Query prepare(String sql, int resultSetType, int resultSetConcurency)
 			throws SQLException {
-		Query query = new Query(cnx.prepareStatement(sql, resultSetType,
-				resultSetConcurency));
+		Query query = new Query(record(
+				cnx.prepareStatement(sql, resultSetType, resultSetConcurency),
+				sql), sql);
 		addQuery(query);
 		return query;
 	}
 
 	/**
 	 * A convenient way to directly execute an INSERT/UPDATE/DELETE SQL
-	 * statement.
+	 * statement. The statement is closed after the execution.
 	 * 
 	 * @param sql
 	 *            The native SQL query
@@ -199,6 +698,11 @@ public class Transaction {
 	 *             if any JDBC error occurs
 	 */
 	public int update(String sql) throws SQLException {
-		return prepare(sql).update();
+		Query query = prepare(sql);
+		try {
+			return query.update();
+		} finally {
+			closeQuery(query);
+		}
 	}
 }
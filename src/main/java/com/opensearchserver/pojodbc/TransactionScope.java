@@ -0,0 +1,165 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.logging.Logger;
+
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+
+/**
+ * Transactions bound to the current thread, to share one connection across
+ * nested calls.
+ * <p>
+ * The scoped transactions of a ConnectionManager are stacked per thread. A
+ * nested call with the REQUIRED (or SUPPORTS) propagation joins the current
+ * transaction: it uses the same connection, its commit is done by the
+ * outermost transaction, and its rollback marks the outermost transaction as
+ * rollback-only. A REQUIRED call without autocommit does not join a
+ * transaction in autocommit mode (started with SUPPORTS): it starts a new
+ * transaction. Each scoped transaction must be closed, in the reverse order
+ * of creation, in a finally clause. A transaction closed out of order is
+ * never restored as the current one.
+ * </p>
+ *
+ * <pre>
+ * Transaction transaction = null;
+ * try {
+ * 	transaction = connectionManager.getNewTransaction(
+ * 			TransactionScope.Propagation.REQUIRED, false, null);
+ * 	// ... calls other layers using the REQUIRED propagation ...
+ * 	transaction.commit();
+ * } finally {
+ * 	if (transaction != null)
+ * 		transaction.close();
+ * }
+ * </pre>
+ */
+public final class TransactionScope {
+
+	static protected Logger logger = Logger.getLogger(TransactionScope.class
+			.getCanonicalName());
+
+	public enum Propagation {
+
+		/**
+		 * Join the current transaction, or start a new one. A current
+		 * transaction in autocommit mode is only joined if autocommit is
+		 * requested.
+		 */
+		REQUIRED,
+
+		/**
+		 * Always start a new transaction (with a new connection). The current
+		 * transaction is restored when the new one is closed.
+		 */
+		REQUIRES_NEW,
+
+		/**
+		 * Join the current transaction, or start a new one in autocommit mode
+		 */
+		SUPPORTS;
+	}
+
+	private final static ThreadLocal<IdentityHashMap<ConnectionManager, Transaction>> currentTransactions =
+			new ThreadLocal<IdentityHashMap<ConnectionManager, Transaction>>() {
+				@Override
+				protected IdentityHashMap<ConnectionManager, Transaction> initialValue() {
+					return new IdentityHashMap<ConnectionManager, Transaction>();
+				}
+			};
+
+	private TransactionScope() {
+	}
+
+	/**
+	 * @param connectionManager
+	 *            the ConnectionManager
+	 * @return the scoped transaction of the current thread, or null
+	 */
+	public static Transaction current(ConnectionManager connectionManager) {
+		return live(currentTransactions.get().get(connectionManager));
+	}
+
+	/**
+	 * Skip the transactions closed out of order
+	 */
+	private static Transaction live(Transaction transaction) {
+		while (transaction != null && transaction.isClosed())
+			transaction = transaction.getPreviousScope();
+		return transaction;
+	}
+
+	/**
+	 * Start or join a transaction, and bind it to the current thread.
+	 *
+	 * @param connectionManager
+	 *            the ConnectionManager
+	 * @param propagation
+	 *            how to handle the current transaction
+	 * @param autoCommit
+	 *            the autocommit mode of a new transaction
+	 * @param transactionIsolation
+	 *            the isolation of a new transaction, or null
+	 * @return a new Transaction object, joined or not
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 */
+	public static Transaction begin(ConnectionManager connectionManager,
+			Propagation propagation, boolean autoCommit,
+			Integer transactionIsolation) throws SQLException {
+		IdentityHashMap<ConnectionManager, Transaction> transactions =
+				currentTransactions.get();
+		Transaction current = live(transactions.get(connectionManager));
+		boolean join = current != null
+				&& propagation != Propagation.REQUIRES_NEW
+				&& (propagation == Propagation.SUPPORTS || autoCommit || !current
+						.isAutoCommit());
+		Transaction transaction;
+		if (join)
+			transaction = new Transaction(current);
+		else
+			transaction = connectionManager.getNewTransaction(
+					propagation == Propagation.SUPPORTS ? true : autoCommit,
+					transactionIsolation);
+		transaction.bindScope(connectionManager, current);
+		transactions.put(connectionManager, transaction);
+		return transaction;
+	}
+
+	/**
+	 * Restore the previous scoped transaction when a transaction is closed
+	 */
+	static void unbind(ConnectionManager connectionManager,
+			Transaction transaction, Transaction previous) {
+		IdentityHashMap<ConnectionManager, Transaction> transactions =
+				currentTransactions.get();
+		if (transactions.get(connectionManager) != transaction) {
+			// Closed by another thread, or not in the reverse order
+			logger.warning("The scoped transaction is not the current one");
+			return;
+		}
+		previous = live(previous);
+		if (previous == null)
+			transactions.remove(connectionManager);
+		else
+			transactions.put(connectionManager, previous);
+	}
+}
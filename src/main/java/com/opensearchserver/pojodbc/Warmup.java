@@ -0,0 +1,356 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+
+/**
+ * Warm up a ConnectionManager before serving traffic.
+ * <p>
+ * The connections are opened in parallel and kept open until all of them
+ * are established, so that a pool (ConnectionPool, or the pool behind a
+ * DataSource) ends up with that many idle connections. The registered SELECT
+ * statements are executed once on each connection, with their sample
+ * parameters and at most one row: the statement caches of the drivers and
+ * the plan caches of the databases are primed (most drivers only send the
+ * statement to the server at its first execution). The other statements
+ * (INSERT, UPDATE, DELETE, DDL, ...) are never executed: a rollback does not
+ * undo the sequence values, the triggers or the implicit commits. They are
+ * only prepared, and their parameter metadata is requested, which makes some
+ * drivers describe the statement to the server. The registered bean classes
+ * are initialized, and their BeanInfo and generated BeanMapper are resolved
+ * and cached.
+ * </p>
+ * <p>
+ * The connections are opened with the deadline of the warm-up, which also
+ * bounds the execution of the statements.
+ * </p>
+ *
+ * <pre>
+ * Warmup warmup = new Warmup(connectionManager);
+ * warmup.setConnections(10);
+ * warmup.addStatement(&quot;SELECT * FROM user WHERE id=?&quot;, 1);
+ * warmup.addBeanClass(User.class);
+ * warmup.run(30, TimeUnit.SECONDS);
+ * </pre>
+ * <p>
+ * A statement which cannot be prepared or executed is logged and counted; a
+ * connection which cannot be opened fails the warm-up.
+ * </p>
+ */
+public class Warmup {
+
+	static protected Logger logger = Logger.getLogger(Warmup.class
+			.getCanonicalName());
+
+	private final ConnectionManager connectionManager;
+	private final List<String> statements;
+	private final List<Object[]> parameters;
+	private final List<Class<?>> beanClasses;
+	private int connections;
+	private final AtomicInteger openedCount;
+	private final AtomicInteger preparedCount;
+	private final AtomicInteger executedCount;
+	private final AtomicInteger failedCount;
+	private long elapsedNanos;
+
+	/**
+	 * @param connectionManager
+	 *            the ConnectionManager to warm up
+	 */
+	public Warmup(ConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+		this.statements = new ArrayList<String>();
+		this.parameters = new ArrayList<Object[]>();
+		this.beanClasses = new ArrayList<Class<?>>();
+		this.connections = 1;
+		this.openedCount = new AtomicInteger();
+		this.preparedCount = new AtomicInteger();
+		this.executedCount = new AtomicInteger();
+		this.failedCount = new AtomicInteger();
+		this.elapsedNanos = 0;
+	}
+
+	/**
+	 * @param connections
+	 *            the number of connections opened in parallel (1 by
+	 *            default)
+	 */
+	public void setConnections(int connections) {
+		this.connections = connections;
+	}
+
+	/**
+	 * @param sql
+	 *            a frequently executed SQL statement, executed on each
+	 *            connection if it is a SELECT, otherwise only prepared
+	 * @param parameters
+	 *            the sample values bound to the parameters of a SELECT
+	 */
+	public void addStatement(String sql, Object... parameters) {
+		statements.add(sql);
+		this.parameters.add(parameters);
+	}
+
+	/**
+	 * @param beanClass
+	 *            a POJO class mapped by the queries
+	 */
+	public void addBeanClass(Class<?> beanClass) {
+		beanClasses.add(beanClass);
+	}
+
+	/**
+	 * Run the warm-up. The method returns when every connection has been
+	 * opened and every statement prepared or executed.
+	 * 
+	 * @param timeout
+	 *            the maximum duration of the warm-up
+	 * @param unit
+	 *            the unit of the timeout
+	 * @throws SQLException
+	 *             if a connection cannot be opened, or if the timeout is
+	 *             reached (SQLTimeoutException)
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted
+	 */
+	public void run(long timeout, TimeUnit unit) throws SQLException,
+			InterruptedException {
+		long start = System.nanoTime();
+		openedCount.set(0);
+		preparedCount.set(0);
+		executedCount.set(0);
+		failedCount.set(0);
+		final Deadline deadline = Deadline.after(timeout, unit);
+		final CountDownLatch opened = new CountDownLatch(connections);
+		ExecutorService executor = Executors.newFixedThreadPool(connections,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "pojodbc-warmup");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(connections);
+			for (int i = 0; i < connections; i++)
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						warmConnection(deadline, opened);
+						return null;
+					}
+				}));
+			warmBeanClasses();
+			SQLException error = null;
+			for (Future<?> future : futures) {
+				SQLException e = waitFor(future, deadline);
+				if (e == null)
+					continue;
+				if (error == null)
+					error = e;
+				else
+					error.addSuppressed(e);
+			}
+			if (error != null)
+				throw error;
+		} finally {
+			executor.shutdownNow();
+			elapsedNanos = System.nanoTime() - start;
+		}
+		if (logger.isLoggable(Level.INFO))
+			logger.info("Warm-up done in "
+					+ TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms: "
+					+ openedCount + " connections, " + preparedCount
+					+ " statements prepared (" + executedCount
+					+ " executed), " + failedCount + " failed");
+	}
+
+	private static SQLException waitFor(Future<?> future, Deadline deadline)
+			throws InterruptedException {
+		try {
+			future.get(Math.max(0, deadline.remaining(TimeUnit.NANOSECONDS)),
+					TimeUnit.NANOSECONDS);
+			return null;
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			return new SQLTimeoutException("Warm-up timeout");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException)
+				return (SQLException) cause;
+			return new SQLException(cause);
+		}
+	}
+
+	private void warmConnection(Deadline deadline, CountDownLatch opened)
+			throws SQLException, InterruptedException {
+		Transaction transaction = null;
+		boolean counted = false;
+		try {
+			deadline.check();
+			transaction = connectionManager.getNewTransaction(deadline, false,
+					null);
+			openedCount.incrementAndGet();
+			for (int i = 0; i < statements.size(); i++) {
+				deadline.check();
+				String sql = statements.get(i);
+				try {
+					if (warm(transaction, sql, parameters.get(i)))
+						executedCount.incrementAndGet();
+					preparedCount.incrementAndGet();
+				} catch (SQLException e) {
+					failedCount.incrementAndGet();
+					logger.log(Level.WARNING, "Cannot warm up " + sql, e);
+					// Some databases abort the transaction on error
+					transaction.rollback();
+				}
+			}
+			transaction.rollback();
+			opened.countDown();
+			counted = true;
+			// Keep the connection until all are opened: a pool would
+			// otherwise give the same connection to every thread
+			if (!opened.await(
+					Math.max(0, deadline.remaining(TimeUnit.NANOSECONDS)),
+					TimeUnit.NANOSECONDS))
+				throw new SQLTimeoutException("Warm-up timeout: "
+						+ (connections - opened.getCount()) + " of "
+						+ connections + " connections opened");
+		} finally {
+			if (!counted)
+				opened.countDown();
+			if (transaction != null)
+				transaction.close();
+		}
+	}
+
+	/**
+	 * @return true if the statement is a SELECT, which can be executed
+	 *         without side effect
+	 */
+	private static boolean isSelect(String sql) {
+		String trimmed = sql.trim();
+		return trimmed.regionMatches(true, 0, "SELECT", 0, 6)
+				&& (trimmed.length() == 6 || !Character
+						.isJavaIdentifierPart(trimmed.charAt(6)));
+	}
+
+	/**
+	 * Execute a SELECT statement, only prepare the other statements
+	 * 
+	 * @return true if the statement has been executed
+	 */
+	private static boolean warm(Transaction transaction, String sql,
+			Object[] parameters) throws SQLException {
+		Query query = transaction.prepare(sql);
+		try {
+			PreparedStatement statement = query.getStatement();
+			if (!isSelect(sql)) {
+				try {
+					statement.getParameterMetaData();
+				} catch (SQLFeatureNotSupportedException e) {
+					// The statement is only prepared
+				}
+				return false;
+			}
+			statement.setMaxRows(1);
+			for (int i = 0; i < parameters.length; i++)
+				statement.setObject(i + 1, parameters[i]);
+			query.execute();
+			return true;
+		} finally {
+			transaction.closeQuery(query);
+		}
+	}
+
+	private void warmBeanClasses() {
+		for (Class<?> beanClass : beanClasses) {
+			try {
+				Class.forName(beanClass.getName(), true,
+						beanClass.getClassLoader());
+				Introspector.getBeanInfo(beanClass);
+				BeanMappers.get(beanClass);
+			} catch (ClassNotFoundException | IntrospectionException e) {
+				logger.log(Level.WARNING, "Cannot warm up " + beanClass, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of connections opened by the last run
+	 */
+	public int getOpenedCount() {
+		return openedCount.get();
+	}
+
+	/**
+	 * @return the number of statements prepared (or executed) by the last
+	 *         run
+	 */
+	public int getPreparedCount() {
+		return preparedCount.get();
+	}
+
+	/**
+	 * @return the number of SELECT statements executed by the last run
+	 */
+	public int getExecutedCount() {
+		return executedCount.get();
+	}
+
+	/**
+	 * @return the number of statements which could not be prepared or
+	 *         executed
+	 */
+	public int getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @param unit
+	 *            the unit of the result
+	 * @return the duration of the last run
+	 */
+	public long getElapsed(TimeUnit unit) {
+		return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,419 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Capture the statements executed by the transactions of a ConnectionManager
+ * into an append-only log, which can be replayed by WorkloadReplay.
+ * <p>
+ * The log contains the transaction boundaries (begin, commit, rollback,
+ * close) and, for each execution of a PreparedStatement, the SQL, the bound
+ * parameters (one set per batch entry), the start time and the duration.
+ * The duration is the time spent in the execute call: for a query, the rows
+ * fetched after executeQuery returned are not included.
+ * Each distinct SQL is written once and then referenced by an identifier.
+ * Stream, Reader, Blob and Clob parameters are not captured (recorded as
+ * NULL), and neither are savepoints.
+ * </p>
+ *
+ * <pre>
+ * WorkloadRecorder recorder = new WorkloadRecorder(new File(&quot;workload.log&quot;));
+ * connectionManager.setWorkloadRecorder(recorder);
+ * ...
+ * connectionManager.setWorkloadRecorder(null);
+ * recorder.close();
+ * </pre>
+ * <p>
+ * An I/O error disables the recorder: the transactions are never affected.
+ * </p>
+ */
+public class WorkloadRecorder implements Closeable {
+
+	static protected Logger logger = Logger.getLogger(WorkloadRecorder.class
+			.getCanonicalName());
+
+	final static int MAGIC = 0x504a574c; // PJWL
+	final static byte VERSION = 1;
+
+	final static byte SESSION = 1;
+	final static byte SQL = 2;
+	final static byte BEGIN = 3;
+	final static byte EXECUTE = 4;
+	final static byte COMMIT = 5;
+	final static byte ROLLBACK = 6;
+	final static byte END = 7;
+
+	final static byte KIND_QUERY = 1;
+	final static byte KIND_UPDATE = 2;
+	final static byte KIND_EXECUTE = 3;
+	final static byte KIND_BATCH = 4;
+
+	final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final static Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private final static Pattern NUMBER_LITERAL = Pattern
+			.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+	private final static Pattern PARAMETER_LIST = Pattern
+			.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+	private final static Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final File file;
+	private final AtomicLong transactionIds;
+	private final long baseMillis;
+	private final long baseNanos;
+	private final HashMap<String, Integer> sqlIds;
+	private DataOutputStream output;
+	private long eventCount;
+
+	/**
+	 * @param file
+	 *            the log file. The events are appended if the file exists.
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public WorkloadRecorder(File file) throws IOException {
+		this.file = file;
+		this.transactionIds = new AtomicLong();
+		this.baseMillis = System.currentTimeMillis();
+		this.baseNanos = System.nanoTime();
+		this.sqlIds = new HashMap<String, Integer>();
+		this.eventCount = 0;
+		boolean newFile = !file.exists() || file.length() == 0;
+		output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+		if (newFile) {
+			output.writeInt(MAGIC);
+			output.writeByte(VERSION);
+		}
+		output.writeByte(SESSION);
+		output.writeLong(baseMillis);
+	}
+
+	/**
+	 * @return the log file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of events written
+	 */
+	public synchronized long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * @return true if the recorder is still writing
+	 */
+	public synchronized boolean isRecording() {
+		return output != null;
+	}
+
+	/**
+	 * Normalize a SQL statement: the literals are replaced by ?, a list of
+	 * parameters by (?...), and the whitespaces are collapsed. Used to group
+	 * the statements differing only by their literals.
+	 *
+	 * @param sql
+	 *            the SQL statement
+	 * @return the fingerprint
+	 */
+	public static String fingerprint(String sql) {
+		String fp = STRING_LITERAL.matcher(sql).replaceAll("?");
+		fp = NUMBER_LITERAL.matcher(fp).replaceAll("?");
+		fp = PARAMETER_LIST.matcher(fp).replaceAll("(?...)");
+		return WHITESPACE.matcher(fp).replaceAll(" ").trim();
+	}
+
+	private long now() {
+		return baseMillis * 1000
+				+ TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - baseNanos);
+	}
+
+	private void failed(IOException e) {
+		logger.log(Level.WARNING, "Workload recording stopped", e);
+		try {
+			output.close();
+		} catch (IOException e1) {
+			logger.log(Level.WARNING, e1.getMessage(), e1);
+		}
+		output = null;
+	}
+
+	private void writeTransactionEvent(byte type, long transactionId) {
+		long time = now();
+		synchronized (this) {
+			if (output == null)
+				return;
+			try {
+				output.writeByte(type);
+				output.writeLong(time);
+				output.writeLong(transactionId);
+				eventCount++;
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+	}
+
+	/**
+	 * Record the beginning of a transaction
+	 *
+	 * @return the identifier of the transaction in the log
+	 */
+	long begin(boolean autoCommit, Integer transactionIsolation) {
+		long transactionId = transactionIds.incrementAndGet();
+		long time = now();
+		synchronized (this) {
+			if (output == null)
+				return transactionId;
+			try {
+				output.writeByte(BEGIN);
+				output.writeLong(time);
+				output.writeLong(transactionId);
+				output.writeBoolean(autoCommit);
+				output.writeInt(transactionIsolation == null ? -1
+						: transactionIsolation);
+				eventCount++;
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+		return transactionId;
+	}
+
+	void commit(long transactionId) {
+		writeTransactionEvent(COMMIT, transactionId);
+	}
+
+	void rollback(long transactionId) {
+		writeTransactionEvent(ROLLBACK, transactionId);
+	}
+
+	void end(long transactionId) {
+		writeTransactionEvent(END, transactionId);
+	}
+
+	private void execute(long transactionId, String sql, byte kind,
+			long startTime, long durationNanos, boolean failed,
+			List<Object[]> parameterSets) {
+		// The parameters are encoded outside of the lock
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream params = new DataOutputStream(baos);
+		try {
+			ByteArrayOutputStream set = new ByteArrayOutputStream();
+			params.writeInt(parameterSets.size());
+			for (Object[] parameters : parameterSets) {
+				set.reset();
+				RowCodec.encode(parameters, new DataOutputStream(set));
+				params.writeInt(set.size());
+				set.writeTo(params);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Cannot record the parameters of "
+					+ sql, e);
+			return;
+		}
+		synchronized (this) {
+			if (output == null)
+				return;
+			try {
+				Integer sqlId = sqlIds.get(sql);
+				if (sqlId == null) {
+					sqlId = sqlIds.size();
+					sqlIds.put(sql, sqlId);
+					byte[] bytes = sql.getBytes(UTF8);
+					output.writeByte(SQL);
+					output.writeInt(sqlId);
+					output.writeInt(bytes.length);
+					output.write(bytes);
+				}
+				output.writeByte(EXECUTE);
+				output.writeLong(startTime);
+				output.writeLong(transactionId);
+				output.writeInt(sqlId);
+				output.writeByte(kind);
+				output.writeLong(durationNanos);
+				output.writeBoolean(failed);
+				baos.writeTo(output);
+				eventCount++;
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+	}
+
+	/**
+	 * Wrap a statement to record its parameters and its executions
+	 */
+	PreparedStatement wrap(PreparedStatement statement, long transactionId,
+			String sql) {
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				new RecordingHandler(statement, transactionId, sql));
+	}
+
+	private class RecordingHandler implements InvocationHandler {
+
+		private final PreparedStatement statement;
+		private final long transactionId;
+		private final String sql;
+		private final ArrayList<Object> parameters;
+		private final ArrayList<Object[]> batch;
+
+		private RecordingHandler(PreparedStatement statement,
+				long transactionId, String sql) {
+			this.statement = statement;
+			this.transactionId = transactionId;
+			this.sql = sql;
+			this.parameters = new ArrayList<Object>();
+			this.batch = new ArrayList<Object[]>();
+		}
+
+		private void setParameter(int index, Object value) {
+			while (parameters.size() < index)
+				parameters.add(null);
+			parameters.set(index - 1, value);
+		}
+
+		private byte getKind(String name) {
+			switch (name) {
+			case "executeQuery":
+				return KIND_QUERY;
+			case "executeUpdate":
+			case "executeLargeUpdate":
+				return KIND_UPDATE;
+			case "execute":
+				return KIND_EXECUTE;
+			case "executeBatch":
+			case "executeLargeBatch":
+				return KIND_BATCH;
+			default:
+				return 0;
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			int argCount = args == null ? 0 : args.length;
+			if (argCount == 0) {
+				byte kind = getKind(name);
+				if (kind != 0)
+					return invokeExecute(method, kind);
+				if (name.equals("clearParameters"))
+					parameters.clear();
+				else if (name.equals("addBatch"))
+					batch.add(parameters.toArray());
+				else if (name.equals("clearBatch"))
+					batch.clear();
+			} else if (argCount >= 2 && name.startsWith("set")
+					&& args[0] instanceof Integer) {
+				Object value = name.equals("setNull")
+						|| !(args[1] instanceof Serializable) ? null : args[1];
+				setParameter((Integer) args[0], value);
+			}
+			return invoke(method, args);
+		}
+
+		private Object invoke(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private Object invokeExecute(Method method, byte kind)
+				throws Throwable {
+			List<Object[]> parameterSets;
+			if (kind == KIND_BATCH) {
+				parameterSets = new ArrayList<Object[]>(batch);
+				batch.clear();
+			} else {
+				parameterSets = new ArrayList<Object[]>(1);
+				parameterSets.add(parameters.toArray());
+			}
+			long startTime = now();
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				Object result = invoke(method, null);
+				failed = false;
+				return result;
+			} finally {
+				execute(transactionId, sql, kind, startTime,
+						System.nanoTime() - start, failed, parameterSets);
+			}
+		}
+	}
+
+	/**
+	 * Flush the buffered events to the file
+	 */
+	public synchronized void flush() {
+		if (output == null)
+			return;
+		try {
+			output.flush();
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+	/**
+	 * Stop the recording and close the file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (output == null)
+			return;
+		try {
+			output.close();
+		} finally {
+			output = null;
+		}
+	}
+}
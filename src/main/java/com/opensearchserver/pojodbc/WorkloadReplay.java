@@ -0,0 +1,452 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+import com.opensearchserver.pojodbc.connection.JDBCConnection;
+
+/**
+ * Replay a log written by WorkloadRecorder against a ConnectionManager.
+ * <p>
+ * Each recorded transaction is replayed in its own Transaction, with the
+ * same autocommit mode and isolation level. The transactions are started
+ * concurrently, at the recorded pace multiplied by the speed, and the
+ * statements of a transaction keep their recorded spacing. With a speed of
+ * 0, the transactions are replayed as fast as the threads allow. The
+ * statements which failed during the recording are skipped.
+ * </p>
+ * <p>
+ * The times of each recording session are relative to its first
+ * transaction: the sessions appended to the same log are replayed together
+ * from the start. As in the recording, the duration of a statement is the
+ * time spent in the execute call; the rows of a query are then read and
+ * discarded.
+ * </p>
+ *
+ * <pre>
+ * WorkloadReplay replay = new WorkloadReplay(new File(&quot;workload.log&quot;));
+ * replay.setSpeed(4);
+ * WorkloadReport report = replay.replay(connectionManager);
+ * System.out.println(report);
+ * </pre>
+ * <p>
+ * It can also be started from the command line:
+ * <code>java com.opensearchserver.pojodbc.WorkloadReplay workload.log
+ * driverClass jdbcUrl [speed] [threads]</code>
+ * </p>
+ */
+public class WorkloadReplay {
+
+	static protected Logger logger = Logger.getLogger(WorkloadReplay.class
+			.getCanonicalName());
+
+	private static class Step {
+
+		private final byte type;
+		private long time;
+		private String sql;
+		private byte kind;
+		private long recordedNanos;
+		private boolean failed;
+		private List<Object[]> parameterSets;
+
+		private Step(byte type, long time) {
+			this.type = type;
+			this.time = time;
+		}
+	}
+
+	private static class RecordedTransaction {
+
+		private long begin;
+		private final boolean autoCommit;
+		private final Integer transactionIsolation;
+		private final List<Step> steps;
+
+		private RecordedTransaction(long begin, boolean autoCommit,
+				Integer transactionIsolation) {
+			this.begin = begin;
+			this.autoCommit = autoCommit;
+			this.transactionIsolation = transactionIsolation;
+			this.steps = new ArrayList<Step>();
+		}
+	}
+
+	private final List<RecordedTransaction> transactions;
+	private final int statementCount;
+	private double speed;
+	private int threads;
+
+	/**
+	 * Read the log. A truncated last event (recorder not closed) is ignored.
+	 *
+	 * @param file
+	 *            the log written by WorkloadRecorder
+	 * @throws IOException
+	 *             if the file cannot be read or is not a workload log
+	 */
+	public WorkloadReplay(File file) throws IOException {
+		this.transactions = new ArrayList<RecordedTransaction>();
+		this.statementCount = read(file);
+		this.speed = 1;
+		this.threads = 16;
+	}
+
+	private int read(File file) throws IOException {
+		int count = 0;
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != WorkloadRecorder.MAGIC)
+				throw new IOException("Not a workload log: " + file);
+			byte version = input.readByte();
+			if (version != WorkloadRecorder.VERSION)
+				throw new IOException("Unsupported workload log version: "
+						+ version);
+			// The identifiers are local to a recording session
+			HashMap<Integer, String> sqls = new HashMap<Integer, String>();
+			HashMap<Long, RecordedTransaction> sessionTransactions =
+					new HashMap<Long, RecordedTransaction>();
+			try {
+				int type;
+				while ((type = input.read()) != -1) {
+					switch (type) {
+					case WorkloadRecorder.SESSION:
+						input.readLong();
+						rebase(sessionTransactions.values());
+						sqls.clear();
+						sessionTransactions.clear();
+						break;
+					case WorkloadRecorder.SQL:
+						int sqlId = input.readInt();
+						sqls.put(sqlId, new String(readBytes(input),
+								WorkloadRecorder.UTF8));
+						break;
+					case WorkloadRecorder.BEGIN:
+						long begin = input.readLong();
+						long beginId = input.readLong();
+						boolean autoCommit = input.readBoolean();
+						int isolation = input.readInt();
+						RecordedTransaction transaction = new RecordedTransaction(
+								begin, autoCommit, isolation == -1 ? null
+										: isolation);
+						sessionTransactions.put(beginId, transaction);
+						transactions.add(transaction);
+						break;
+					case WorkloadRecorder.EXECUTE:
+						Step step = new Step(WorkloadRecorder.EXECUTE,
+								input.readLong());
+						long executeId = input.readLong();
+						step.sql = sqls.get(input.readInt());
+						step.kind = input.readByte();
+						step.recordedNanos = input.readLong();
+						step.failed = input.readBoolean();
+						int setCount = input.readInt();
+						step.parameterSets = new ArrayList<Object[]>(setCount);
+						for (int i = 0; i < setCount; i++)
+							step.parameterSets.add(readParameters(input));
+						addStep(sessionTransactions, executeId, step);
+						count++;
+						break;
+					case WorkloadRecorder.COMMIT:
+					case WorkloadRecorder.ROLLBACK:
+					case WorkloadRecorder.END:
+						Step boundary = new Step((byte) type, input.readLong());
+						addStep(sessionTransactions, input.readLong(), boundary);
+						break;
+					default:
+						throw new IOException("Corrupted workload log: "
+								+ file);
+					}
+				}
+			} catch (EOFException e) {
+				logger.warning("Truncated workload log: " + file);
+			}
+			rebase(sessionTransactions.values());
+		}
+		Collections.sort(transactions, new Comparator<RecordedTransaction>() {
+			@Override
+			public int compare(RecordedTransaction a, RecordedTransaction b) {
+				return Long.compare(a.begin, b.begin);
+			}
+		});
+		for (RecordedTransaction transaction : transactions)
+			Collections.sort(transaction.steps, new Comparator<Step>() {
+				@Override
+				public int compare(Step a, Step b) {
+					return Long.compare(a.time, b.time);
+				}
+			});
+		return count;
+	}
+
+	/**
+	 * Make the times of a session relative to its first transaction
+	 */
+	private static void rebase(Iterable<RecordedTransaction> session) {
+		long origin = Long.MAX_VALUE;
+		for (RecordedTransaction transaction : session)
+			origin = Math.min(origin, transaction.begin);
+		for (RecordedTransaction transaction : session) {
+			transaction.begin -= origin;
+			for (Step step : transaction.steps)
+				step.time -= origin;
+		}
+	}
+
+	private static void addStep(
+			HashMap<Long, RecordedTransaction> sessionTransactions,
+			long transactionId, Step step) {
+		RecordedTransaction transaction = sessionTransactions
+				.get(transactionId);
+		if (transaction != null)
+			transaction.steps.add(step);
+	}
+
+	private static byte[] readBytes(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return bytes;
+	}
+
+	private static Object[] readParameters(DataInputStream input)
+			throws IOException {
+		return RowCodec.decode(ByteBuffer.wrap(readBytes(input)));
+	}
+
+	/**
+	 * @param speed
+	 *            the multiplier of the recorded pace (1 by default), or 0 to
+	 *            replay as fast as possible
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * @param threads
+	 *            the maximum number of concurrent transactions (16 by
+	 *            default)
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return the number of recorded transactions
+	 */
+	public int getTransactionCount() {
+		return transactions.size();
+	}
+
+	/**
+	 * @return the number of recorded statement executions
+	 */
+	public int getStatementCount() {
+		return statementCount;
+	}
+
+	private void waitUntil(long startNanos, long offsetMicros)
+			throws InterruptedException {
+		if (speed <= 0)
+			return;
+		long target = startNanos + (long) (offsetMicros * 1000 / speed);
+		long wait = target - System.nanoTime();
+		if (wait > 0)
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	/**
+	 * Replay the workload. The method returns when every transaction is
+	 * done.
+	 *
+	 * @param connectionManager
+	 *            provides the transactions
+	 * @return the report
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted
+	 */
+	public WorkloadReport replay(final ConnectionManager connectionManager)
+			throws InterruptedException {
+		final WorkloadReport report = new WorkloadReport();
+		if (transactions.isEmpty())
+			return report;
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "pojodbc-replay");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		final long startNanos = System.nanoTime();
+		try {
+			for (final RecordedTransaction transaction : transactions) {
+				waitUntil(startNanos, transaction.begin);
+				final long scheduled = System.nanoTime();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						replay(connectionManager, transaction, startNanos,
+								System.nanoTime() - scheduled, report);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		report.finish(System.nanoTime() - startNanos);
+		return report;
+	}
+
+	private void replay(ConnectionManager connectionManager,
+			RecordedTransaction recorded, long startNanos, long lagNanos,
+			WorkloadReport report) {
+		long start = System.nanoTime();
+		Transaction transaction = null;
+		try {
+			transaction = connectionManager.getNewTransaction(
+					recorded.autoCommit, recorded.transactionIsolation);
+			for (Step step : recorded.steps) {
+				waitUntil(startNanos, step.time);
+				switch (step.type) {
+				case WorkloadRecorder.EXECUTE:
+					if (step.failed || step.sql == null)
+						report.skipped();
+					else
+						execute(transaction, step, report);
+					break;
+				case WorkloadRecorder.COMMIT:
+					transaction.commit();
+					break;
+				case WorkloadRecorder.ROLLBACK:
+					transaction.rollback();
+					break;
+				default:
+					break;
+				}
+			}
+			report.transaction(System.nanoTime() - start, lagNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			report.error();
+		} catch (Exception e) {
+			if (logger.isLoggable(Level.FINE))
+				logger.log(Level.FINE, "Replayed transaction failed", e);
+			report.error();
+			if (transaction != null && !recorded.autoCommit)
+				try {
+					transaction.rollback();
+				} catch (SQLException e1) {
+					logger.log(Level.WARNING, e1.getMessage(), e1);
+				}
+		} finally {
+			if (transaction != null)
+				transaction.close();
+		}
+	}
+
+	private static void bind(PreparedStatement statement, Object[] parameters)
+			throws SQLException {
+		int index = 1;
+		for (Object parameter : parameters)
+			statement.setObject(index++, parameter);
+	}
+
+	private static void execute(Transaction transaction, Step step,
+			WorkloadReport report) throws Exception {
+		Query query = transaction.prepare(step.sql);
+		try {
+			PreparedStatement statement = query.getStatement();
+			if (step.kind == WorkloadRecorder.KIND_BATCH)
+				for (Object[] parameters : step.parameterSets) {
+					bind(statement, parameters);
+					statement.addBatch();
+				}
+			else
+				bind(statement, step.parameterSets.get(0));
+			ResultSet resultSet = null;
+			long start = System.nanoTime();
+			switch (step.kind) {
+			case WorkloadRecorder.KIND_BATCH:
+				statement.executeBatch();
+				break;
+			case WorkloadRecorder.KIND_QUERY:
+				resultSet = statement.executeQuery();
+				break;
+			case WorkloadRecorder.KIND_UPDATE:
+				statement.executeUpdate();
+				break;
+			default:
+				statement.execute();
+				break;
+			}
+			report.statement(WorkloadRecorder.fingerprint(step.sql),
+					System.nanoTime() - start, step.recordedNanos);
+			if (resultSet != null)
+				try {
+					while (resultSet.next())
+						;
+				} finally {
+					resultSet.close();
+				}
+		} finally {
+			transaction.closeQuery(query);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: WorkloadReplay logFile driverClass "
+					+ "jdbcUrl [speed] [threads]");
+			System.exit(1);
+		}
+		WorkloadReplay replay = new WorkloadReplay(new File(args[0]));
+		if (args.length > 3)
+			replay.setSpeed(Double.parseDouble(args[3]));
+		if (args.length > 4)
+			replay.setThreads(Integer.parseInt(args[4]));
+		System.out.println(replay.getTransactionCount() + " transactions, "
+				+ replay.getStatementCount() + " statements");
+		System.out.print(replay.replay(new JDBCConnection(args[1], args[2])));
+	}
+}
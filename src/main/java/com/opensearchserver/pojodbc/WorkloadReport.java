@@ -0,0 +1,310 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a WorkloadReplay: throughput, and latency percentiles of the
+ * replayed statements compared to the recorded ones, globally and per SQL
+ * fingerprint.
+ */
+public class WorkloadReport {
+
+	private static class Latencies {
+
+		private long[] values = new long[16];
+		private int size = 0;
+		private long total = 0;
+		private boolean sorted = true;
+
+		private void add(long value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+			total += value;
+			sorted = false;
+		}
+
+		private long percentile(double percent) {
+			if (size == 0)
+				return 0;
+			if (!sorted) {
+				Arrays.sort(values, 0, size);
+				sorted = true;
+			}
+			int index = (int) Math.ceil(percent / 100 * size) - 1;
+			return values[Math.max(0, Math.min(size - 1, index))];
+		}
+	}
+
+	private static class Statistics {
+
+		private final Latencies replayed = new Latencies();
+		private final Latencies recorded = new Latencies();
+	}
+
+	private final HashMap<String, Statistics> fingerprints;
+	private final Statistics statements;
+	private final Latencies transactions;
+	private long errorCount;
+	private long skippedCount;
+	private long maxLagNanos;
+	private long elapsedNanos;
+
+	WorkloadReport() {
+		fingerprints = new HashMap<String, Statistics>();
+		statements = new Statistics();
+		transactions = new Latencies();
+		errorCount = 0;
+		skippedCount = 0;
+		maxLagNanos = 0;
+		elapsedNanos = 0;
+	}
+
+	synchronized void statement(String fingerprint, long replayedNanos,
+			long recordedNanos) {
+		Statistics statistics = fingerprints.get(fingerprint);
+		if (statistics == null) {
+			statistics = new Statistics();
+			fingerprints.put(fingerprint, statistics);
+		}
+		statistics.replayed.add(replayedNanos);
+		statistics.recorded.add(recordedNanos);
+		statements.replayed.add(replayedNanos);
+		statements.recorded.add(recordedNanos);
+	}
+
+	synchronized void transaction(long nanos, long lagNanos) {
+		transactions.add(nanos);
+		if (lagNanos > maxLagNanos)
+			maxLagNanos = lagNanos;
+	}
+
+	synchronized void error() {
+		errorCount++;
+	}
+
+	synchronized void skipped() {
+		skippedCount++;
+	}
+
+	synchronized void finish(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the number of transactions replayed without error
+	 */
+	public synchronized int getTransactionCount() {
+		return transactions.size;
+	}
+
+	/**
+	 * @return the number of statements executed
+	 */
+	public synchronized int getStatementCount() {
+		return statements.replayed.size;
+	}
+
+	/**
+	 * @return the number of transactions aborted by an error
+	 */
+	public synchronized long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * @return the number of statements not replayed because they failed
+	 *         during the recording
+	 */
+	public synchronized long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * @param unit
+	 *            the unit of the result
+	 * @return the duration of the replay
+	 */
+	public synchronized long getElapsed(TimeUnit unit) {
+		return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The maximum delay between the recorded start of a transaction (scaled
+	 * by the speed) and its replayed start. A large lag means that the replay
+	 * could not keep up with the requested speed.
+	 *
+	 * @param unit
+	 *            the unit of the result
+	 * @return the maximum lag
+	 */
+	public synchronized long getMaxLag(TimeUnit unit) {
+		return unit.convert(maxLagNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of statements executed per second
+	 */
+	public synchronized double getStatementThroughput() {
+		return elapsedNanos == 0 ? 0 : statements.replayed.size * 1e9
+				/ elapsedNanos;
+	}
+
+	/**
+	 * @return the number of transactions replayed per second
+	 */
+	public synchronized double getTransactionThroughput() {
+		return elapsedNanos == 0 ? 0 : transactions.size * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * @return the fingerprints of the replayed statements
+	 */
+	public synchronized Set<String> getFingerprints() {
+		return Collections.unmodifiableSet(fingerprints.keySet());
+	}
+
+	/**
+	 * @param percent
+	 *            the percentile (50, 99, 99.9, ...)
+	 * @param unit
+	 *            the unit of the result
+	 * @return the latency of the replayed statements
+	 */
+	public synchronized long getPercentile(double percent, TimeUnit unit) {
+		return unit.convert(statements.replayed.percentile(percent),
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param percent
+	 *            the percentile (50, 99, 99.9, ...)
+	 * @param unit
+	 *            the unit of the result
+	 * @return the latency of the same statements during the recording
+	 */
+	public synchronized long getRecordedPercentile(double percent,
+			TimeUnit unit) {
+		return unit.convert(statements.recorded.percentile(percent),
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param percent
+	 *            the percentile (50, 99, 99.9, ...)
+	 * @param unit
+	 *            the unit of the result
+	 * @return the duration of the replayed transactions
+	 */
+	public synchronized long getTransactionPercentile(double percent,
+			TimeUnit unit) {
+		return unit.convert(transactions.percentile(percent),
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            a fingerprint returned by getFingerprints
+	 * @param percent
+	 *            the percentile (50, 99, 99.9, ...)
+	 * @param unit
+	 *            the unit of the result
+	 * @return the latency of the replayed statements, or 0
+	 */
+	public synchronized long getPercentile(String fingerprint,
+			double percent, TimeUnit unit) {
+		Statistics statistics = fingerprints.get(fingerprint);
+		return statistics == null ? 0 : unit.convert(
+				statistics.replayed.percentile(percent), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            a fingerprint returned by getFingerprints
+	 * @param percent
+	 *            the percentile (50, 99, 99.9, ...)
+	 * @param unit
+	 *            the unit of the result
+	 * @return the latency of the same statements during the recording, or 0
+	 */
+	public synchronized long getRecordedPercentile(String fingerprint,
+			double percent, TimeUnit unit) {
+		Statistics statistics = fingerprints.get(fingerprint);
+		return statistics == null ? 0 : unit.convert(
+				statistics.recorded.percentile(percent), TimeUnit.NANOSECONDS);
+	}
+
+	private static String micros(long nanos) {
+		return Long.toString(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * A text summary. The latencies are in microseconds, the fingerprints
+	 * are sorted by total replayed time.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(
+				"%d transactions, %d statements in %d ms: %.1f tx/s, %.1f stmt/s%n",
+				transactions.size, statements.replayed.size,
+				TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+				getTransactionThroughput(), getStatementThroughput()));
+		sb.append(String.format(
+				"%d errors, %d skipped, max lag %d ms%n", errorCount,
+				skippedCount, TimeUnit.NANOSECONDS.toMillis(maxLagNanos)));
+		sb.append(String.format("%10s %10s %10s %10s %10s %10s  %s%n",
+				"count", "p50", "p99", "max", "rec p50", "rec p99",
+				"statement"));
+		appendLine(sb, "(all)", statements);
+		List<String> keys = new ArrayList<String>(fingerprints.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(fingerprints.get(b).replayed.total,
+						fingerprints.get(a).replayed.total);
+			}
+		});
+		for (String key : keys)
+			appendLine(sb, key, fingerprints.get(key));
+		return sb.toString();
+	}
+
+	private static void appendLine(StringBuilder sb, String name,
+			Statistics statistics) {
+		if (name.length() > 100)
+			name = name.substring(0, 97) + "...";
+		sb.append(String.format("%10d %10s %10s %10s %10s %10s  %s%n",
+				statistics.replayed.size,
+				micros(statistics.replayed.percentile(50)),
+				micros(statistics.replayed.percentile(99)),
+				micros(statistics.replayed.percentile(100)),
+				micros(statistics.recorded.percentile(50)),
+				micros(statistics.recorded.percentile(99)), name));
+	}
+}
@@ -25,7 +25,15 @@ import java.sql.Statement;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.opensearchserver.pojodbc.Deadline;
+import com.opensearchserver.pojodbc.EntityCache;
+import com.opensearchserver.pojodbc.FetchSizePolicy;
+import com.opensearchserver.pojodbc.MemoryBudget;
+import com.opensearchserver.pojodbc.StringDictionary;
 import com.opensearchserver.pojodbc.Transaction;
+import com.opensearchserver.pojodbc.TransactionScope;
+import com.opensearchserver.pojodbc.TransactionScope.Propagation;
+import com.opensearchserver.pojodbc.WorkloadRecorder;
 
 /**
  * 
@@ -43,6 +51,134 @@ public abstract class ConnectionManager {
 	static protected Logger logger = Logger.getLogger(ConnectionManager.class
 			.getCanonicalName());
 
+	/**
+	 * The default maximum number of open queries per transaction (no limit)
+	 */
+	public final static int DEFAULT_MAX_OPEN_QUERIES = 0;
+
+	private volatile FetchSizePolicy fetchSizePolicy = null;
+
+	private volatile int maxOpenQueries = DEFAULT_MAX_OPEN_QUERIES;
+
+	private volatile MemoryBudget memoryBudget = null;
+
+	private volatile StringDictionary stringDictionary = null;
+
+	private volatile EntityCache entityCache = null;
+
+	private volatile WorkloadRecorder workloadRecorder = null;
+
+	/**
+	 * @return the fetch size policy applied to the queries, or null
+	 */
+	public FetchSizePolicy getFetchSizePolicy() {
+		return fetchSizePolicy;
+	}
+
+	/**
+	 * Set an adaptive fetch size policy applied to the queries of the new
+	 * transactions. Without policy, the fetch size is set only when
+	 * Query.setMaxResults is used.
+	 * 
+	 * @param fetchSizePolicy
+	 *            the policy, or null
+	 */
+	public void setFetchSizePolicy(FetchSizePolicy fetchSizePolicy) {
+		this.fetchSizePolicy = fetchSizePolicy;
+	}
+
+	/**
+	 * @return the memory budget applied to the queries, or null
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the memory budget applied to the result lists of the queries of
+	 * the new transactions.
+	 * 
+	 * @param memoryBudget
+	 *            the budget, or null for no limit
+	 */
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return the dictionary de-duplicating the strings of the results, or
+	 *         null
+	 */
+	public StringDictionary getStringDictionary() {
+		return stringDictionary;
+	}
+
+	/**
+	 * Set the dictionary de-duplicating the strings of the results of the
+	 * queries of the new transactions.
+	 * 
+	 * @param stringDictionary
+	 *            the dictionary, or null
+	 */
+	public void setStringDictionary(StringDictionary stringDictionary) {
+		this.stringDictionary = stringDictionary;
+	}
+
+	/**
+	 * @return the recorder capturing the workload, or null
+	 */
+	public WorkloadRecorder getWorkloadRecorder() {
+		return workloadRecorder;
+	}
+
+	/**
+	 * Record the statements and the boundaries of the new transactions.
+	 * 
+	 * @param workloadRecorder
+	 *            the recorder, or null to stop recording
+	 */
+	public void setWorkloadRecorder(WorkloadRecorder workloadRecorder) {
+		this.workloadRecorder = workloadRecorder;
+	}
+
+	/**
+	 * @return the maximum number of open queries per transaction
+	 */
+	public int getMaxOpenQueries() {
+		return maxOpenQueries;
+	}
+
+	/**
+	 * Set the maximum number of queries kept open by the new transactions.
+	 * When the limit is reached, the least recently used query of the
+	 * transaction which is not in use (no open ResultSet, no SpillList or
+	 * streamed LOB returned) is closed.
+	 * 
+	 * @param maxOpenQueries
+	 *            the maximum number of open queries, or 0 for no limit
+	 */
+	public void setMaxOpenQueries(int maxOpenQueries) {
+		this.maxOpenQueries = maxOpenQueries;
+	}
+
+	/**
+	 * @return the entity cache invalidated by the updates, or null
+	 */
+	public EntityCache getEntityCache() {
+		return entityCache;
+	}
+
+	/**
+	 * Set the entity cache invalidated by the updates executed by the
+	 * transactions of this ConnectionManager.
+	 * 
+	 * @param entityCache
+	 *            the cache, or null
+	 */
+	public void setEntityCache(EntityCache entityCache) {
+		this.entityCache = entityCache;
+	}
+
 	/**
 	 * Start a new transaction (or/and a new connection).
 	 * 
@@ -83,6 +219,78 @@ public abstract class ConnectionManager {
 		return getNewTransaction(true);
 	}
 
+	/**
+	 * Start a new transaction bound to a deadline. The request fails fast if
+	 * the deadline has already passed, before and after acquiring the
+	 * connection. The queries of the transaction are cancelled when the
+	 * deadline passes.
+	 * 
+	 * @param deadline
+	 *            the deadline of the transaction
+	 * @param autoCommit
+	 *            Enable or disable autocommit (if available)
+	 * @param transactionIsolation
+	 *            java.sql.Connection.TRANSACTION..., or null
+	 * @return a new Transaction object
+	 * @throws SQLException
+	 *             if the deadline has passed or if any jdbc error occurs
+	 */
+	public Transaction getNewTransaction(Deadline deadline,
+			boolean autoCommit, Integer transactionIsolation)
+			throws SQLException {
+		deadline.check();
+		Transaction transaction = openTransaction(autoCommit,
+				transactionIsolation, deadline);
+		if (deadline.isExpired()) {
+			transaction.close();
+			deadline.check();
+		}
+		transaction.setDeadline(deadline);
+		return transaction;
+	}
+
+	/**
+	 * Open the transaction of getNewTransaction(Deadline, boolean, Integer).
+	 * This implementation ignores the deadline: it should be overridden to
+	 * bound the acquisition of the connection by the remaining time.
+	 * 
+	 * @param autoCommit
+	 *            Enable or disable autocommit (if available)
+	 * @param transactionIsolation
+	 *            java.sql.Connection.TRANSACTION..., or null
+	 * @param deadline
+	 *            the deadline of the transaction
+	 * @return a new Transaction object
+	 * @throws SQLException
+	 *             if any jdbc error occurs
+	 */
+	protected Transaction openTransaction(boolean autoCommit,
+			Integer transactionIsolation, Deadline deadline)
+			throws SQLException {
+		return getNewTransaction(autoCommit, transactionIsolation);
+	}
+
+	/**
+	 * Start or join a transaction bound to the current thread (see
+	 * TransactionScope).
+	 * 
+	 * @param propagation
+	 *            how to handle the current scoped transaction
+	 * @param autoCommit
+	 *            the autocommit mode of a new transaction
+	 * @param transactionIsolation
+	 *            java.sql.Connection.TRANSACTION..., or null
+	 * @return a new Transaction object, joined or not
+	 * @throws SQLException
+	 *             if any jdbc error occurs
+	 */
+	public Transaction getNewTransaction(Propagation propagation,
+			boolean autoCommit, Integer transactionIsolation)
+			throws SQLException {
+		return TransactionScope.begin(this, propagation, autoCommit,
+				transactionIsolation);
+	}
+
 	/**
 	 * That static method try to close quietly each parameters. Null parameters
 	 * are allowed. SQLException are catched and logged.
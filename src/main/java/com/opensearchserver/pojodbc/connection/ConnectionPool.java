@@ -0,0 +1,499 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.connection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opensearchserver.pojodbc.Deadline;
+
+/**
+ * A connection pool partitioned by key (the url suffix of a JDBCConnection,
+ * used for per-tenant databases).
+ * <p>
+ * The number of open connections is limited globally (maxTotal) and per key
+ * (maxPerKey). When the global limit is reached, the idle connections of the
+ * other keys are closed first. Under contention, a key cannot hold more than
+ * its fair share (maxTotal divided by the number of keys in use): above its
+ * share, a key neither reuses its idle connections nor opens new ones, and
+ * the connections it releases are closed, so that the waiting keys can open
+ * theirs. The connections idle for longer than
+ * idleTimeout are closed, and the unused keys are removed.
+ * </p>
+ * <p>
+ * The connections returned by getConnection are proxies: closing them gives
+ * the connection back to the pool: an open transaction is rolled back and the
+ * initial isolation level is restored. A connection idle for more than
+ * VALIDATION_INTERVAL is validated before being reused.
+ * </p>
+ */
+public class ConnectionPool {
+
+	static protected Logger logger = Logger.getLogger(ConnectionPool.class
+			.getCanonicalName());
+
+	/**
+	 * Open the physical connections of a key
+	 */
+	public interface ConnectionFactory {
+
+		Connection newConnection(String key) throws SQLException;
+	}
+
+	/**
+	 * The idle time in milliseconds after which a connection is validated
+	 */
+	public final static long VALIDATION_INTERVAL = 30000;
+
+	private static class PooledConnection {
+
+		private final Connection cnx;
+		private final int isolation;
+
+		private PooledConnection(Connection cnx) throws SQLException {
+			this.cnx = cnx;
+			this.isolation = cnx.getTransactionIsolation();
+		}
+	}
+
+	private static class IdleConnection {
+
+		private final PooledConnection pooled;
+		private final long since;
+
+		private IdleConnection(PooledConnection pooled, long since) {
+			this.pooled = pooled;
+			this.since = since;
+		}
+	}
+
+	private static class KeyPool {
+
+		private final String key;
+		private final ArrayDeque<IdleConnection> idle;
+		private int active;
+		private int waiting;
+		private long lastUsed;
+
+		private KeyPool(String key) {
+			this.key = key;
+			this.idle = new ArrayDeque<IdleConnection>();
+		}
+	}
+
+	private final ConnectionFactory factory;
+	private final int maxTotal;
+	private final int maxPerKey;
+	private final long idleTimeout;
+	private final long maxWait;
+	private final ReentrantLock lock;
+	private final Condition released;
+	private final HashMap<String, KeyPool> pools;
+	private int openCount;
+	private long lastEviction;
+	private boolean closed;
+
+	/**
+	 * @param factory
+	 *            opens the physical connections
+	 * @param maxTotal
+	 *            the maximum number of open connections
+	 * @param maxPerKey
+	 *            the maximum number of open connections per key
+	 * @param idleTimeout
+	 *            the time in milliseconds after which an idle connection is
+	 *            closed
+	 * @param maxWait
+	 *            the maximum time in milliseconds to wait for a connection
+	 */
+	public ConnectionPool(ConnectionFactory factory, int maxTotal,
+			int maxPerKey, long idleTimeout, long maxWait) {
+		this.factory = factory;
+		this.maxTotal = maxTotal;
+		this.maxPerKey = maxPerKey;
+		this.idleTimeout = idleTimeout;
+		this.maxWait = maxWait;
+		this.lock = new ReentrantLock();
+		this.released = lock.newCondition();
+		this.pools = new HashMap<String, KeyPool>();
+		this.openCount = 0;
+		this.lastEviction = System.currentTimeMillis();
+		this.closed = false;
+	}
+
+	/**
+	 * Borrow a connection. The connection is given back when it is closed.
+	 *
+	 * @param key
+	 *            the key of the partition
+	 * @return a pooled connection
+	 * @throws SQLException
+	 *             if no connection is available after maxWait milliseconds,
+	 *             or if any JDBC error occurs
+	 */
+	public Connection getConnection(String key) throws SQLException {
+		return getConnection(key, null);
+	}
+
+	/**
+	 * Borrow a connection, waiting at most until the deadline. The connection
+	 * is given back when it is closed.
+	 *
+	 * @param key
+	 *            the key of the partition
+	 * @param deadline
+	 *            the deadline of the request, or null
+	 * @return a pooled connection
+	 * @throws SQLException
+	 *             if no connection is available after maxWait milliseconds
+	 *             or when the deadline passes (SQLTimeoutException), or if
+	 *             any JDBC error occurs
+	 */
+	public Connection getConnection(String key, Deadline deadline)
+			throws SQLException {
+		evictIdle(false);
+		PooledConnection pooled = null;
+		Connection replaced = null;
+		long idleSince = 0;
+		KeyPool pool;
+		boolean open = false;
+		lock.lock();
+		try {
+			if (closed)
+				throw new SQLException("The connection pool is closed");
+			pool = pools.get(key);
+			if (pool == null) {
+				pool = new KeyPool(key);
+				pools.put(key, pool);
+			}
+			pool.lastUsed = System.currentTimeMillis();
+			pool.waiting++;
+			try {
+				long waitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+				if (deadline != null)
+					waitNanos = Math.min(waitNanos,
+							deadline.remaining(TimeUnit.NANOSECONDS));
+				for (;;) {
+					if (closed)
+						throw new SQLException("The connection pool is closed");
+					boolean fair = isFair(pool);
+					IdleConnection idle = fair ? pool.idle.pollFirst() : null;
+					if (idle != null) {
+						pooled = idle.pooled;
+						idleSince = idle.since;
+						break;
+					}
+					if (fair && pool.active < maxPerKey) {
+						if (openCount < maxTotal) {
+							openCount++;
+							open = true;
+							break;
+						}
+						// Take the place of the oldest idle connection
+						replaced = pollOldestIdle();
+						if (replaced != null) {
+							open = true;
+							break;
+						}
+					}
+					if (waitNanos <= 0 && deadline != null)
+						deadline.check();
+					if (waitNanos <= 0)
+						throw new SQLTimeoutException(
+								"No connection available for \"" + key
+										+ "\" after " + maxWait + " ms");
+					waitNanos = released.awaitNanos(waitNanos);
+				}
+				pool.active++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException(e);
+			} finally {
+				pool.waiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (open) {
+			ConnectionManager.close(null, null, replaced);
+			Connection cnx = null;
+			try {
+				cnx = factory.newConnection(key);
+				pooled = new PooledConnection(cnx);
+			} catch (SQLException | RuntimeException e) {
+				ConnectionManager.close(null, null, cnx);
+				discard(pool);
+				throw e;
+			}
+		} else if (System.currentTimeMillis() - idleSince > VALIDATION_INTERVAL
+				&& !isValid(pooled.cnx)) {
+			if (logger.isLoggable(Level.FINE))
+				logger.fine("Discard invalid connection for \"" + key + "\"");
+			ConnectionManager.close(null, null, pooled.cnx);
+			discard(pool);
+			return getConnection(key, deadline);
+		}
+		return wrap(pool, pooled);
+	}
+
+	private static boolean isValid(Connection cnx) {
+		try {
+			return cnx.isValid(1);
+		} catch (SQLException | AbstractMethodError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * A key may open a connection if it does not exceed its fair share, or if
+	 * no other key is waiting.
+	 */
+	private boolean isFair(KeyPool pool) {
+		int demand = 0;
+		boolean othersWaiting = false;
+		for (KeyPool p : pools.values()) {
+			if (p.active > 0 || p.waiting > 0)
+				demand++;
+			if (p != pool && p.waiting > 0)
+				othersWaiting = true;
+		}
+		if (!othersWaiting)
+			return true;
+		return pool.active < Math.max(1, maxTotal / demand);
+	}
+
+	private Connection pollOldestIdle() {
+		KeyPool oldestPool = null;
+		for (KeyPool p : pools.values()) {
+			IdleConnection last = p.idle.peekLast();
+			if (last != null
+					&& (oldestPool == null || last.since < oldestPool.idle
+							.peekLast().since))
+				oldestPool = p;
+		}
+		if (oldestPool == null)
+			return null;
+		return oldestPool.idle.pollLast().pooled.cnx;
+	}
+
+	private void evictIdle(boolean force) {
+		List<Connection> toClose = new ArrayList<Connection>();
+		lock.lock();
+		try {
+			long now = System.currentTimeMillis();
+			if (!force && now - lastEviction < idleTimeout / 2)
+				return;
+			lastEviction = now;
+			evictIdle(now, toClose);
+		} finally {
+			lock.unlock();
+			closeQuietly(toClose);
+		}
+	}
+
+	private void evictIdle(long now, List<Connection> toClose) {
+		Iterator<KeyPool> iterator = pools.values().iterator();
+		while (iterator.hasNext()) {
+			KeyPool pool = iterator.next();
+			while (!pool.idle.isEmpty()
+					&& now - pool.idle.peekLast().since > idleTimeout)
+				toClose.add(pool.idle.pollLast().pooled.cnx);
+			if (pool.idle.isEmpty() && pool.active == 0 && pool.waiting == 0
+					&& now - pool.lastUsed > idleTimeout)
+				iterator.remove();
+		}
+	}
+
+	private void discard(KeyPool pool) {
+		lock.lock();
+		try {
+			pool.active--;
+			openCount--;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void release(KeyPool pool, PooledConnection pooled) {
+		Connection cnx = pooled.cnx;
+		boolean reusable;
+		try {
+			if (!cnx.getAutoCommit())
+				cnx.rollback();
+			if (cnx.getTransactionIsolation() != pooled.isolation)
+				cnx.setTransactionIsolation(pooled.isolation);
+			reusable = !cnx.isClosed();
+		} catch (SQLException e) {
+			logger.log(Level.WARNING, "Discard connection", e);
+			reusable = false;
+		}
+		List<Connection> toClose = new ArrayList<Connection>();
+		lock.lock();
+		try {
+			pool.active--;
+			pool.lastUsed = System.currentTimeMillis();
+			// A key above its fair share gives its connection back to the
+			// waiting keys
+			if (reusable && !closed
+					&& (openCount < maxTotal || isFair(pool)))
+				pool.idle.addFirst(new IdleConnection(pooled, pool.lastUsed));
+			else
+				toClose.add(cnx);
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		closeQuietly(toClose);
+	}
+
+	/**
+	 * Close the connections removed from the pool. They are counted as open
+	 * until they are physically closed, so that the global limit is never
+	 * exceeded.
+	 */
+	private void closeQuietly(List<Connection> connections) {
+		if (connections.isEmpty())
+			return;
+		for (Connection cnx : connections)
+			ConnectionManager.close(null, null, cnx);
+		lock.lock();
+		try {
+			openCount -= connections.size();
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Connection wrap(final KeyPool pool, final PooledConnection pooled) {
+		final Connection cnx = pooled.cnx;
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+
+					private boolean released = false;
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						synchronized (this) {
+							if (name.equals("close")) {
+								if (!released) {
+									released = true;
+									release(pool, pooled);
+								}
+								return null;
+							}
+							if (name.equals("isClosed"))
+								return released || cnx.isClosed();
+							if (released)
+								throw new SQLException("Connection closed");
+						}
+						try {
+							return method.invoke(cnx, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+	/**
+	 * Close the idle connections which exceeded the idle timeout.
+	 */
+	public void evictIdle() {
+		evictIdle(true);
+	}
+
+	/**
+	 * @return the number of open connections (borrowed or idle)
+	 */
+	public int getOpenCount() {
+		lock.lock();
+		try {
+			return openCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of idle connections
+	 */
+	public int getIdleCount() {
+		lock.lock();
+		try {
+			int count = 0;
+			for (KeyPool pool : pools.values())
+				count += pool.idle.size();
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of keys currently known by the pool
+	 */
+	public int getKeyCount() {
+		lock.lock();
+		try {
+			return pools.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the idle connections. The borrowed connections are closed when
+	 * they are given back.
+	 */
+	public void close() {
+		List<Connection> toClose = new ArrayList<Connection>();
+		lock.lock();
+		try {
+			closed = true;
+			for (KeyPool pool : pools.values())
+				while (!pool.idle.isEmpty()) {
+					toClose.add(pool.idle.pollFirst().pooled.cnx);
+				}
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		closeQuietly(toClose);
+	}
+}
@@ -55,7 +55,7 @@ public class DataSourceConnection extends ConnectionManager {
 	@Override
 	public Transaction getNewTransaction(boolean autoCommit,
 			Integer transactionIsolation) throws SQLException {
-		return new Transaction(dataSource.getConnection(), autoCommit,
+		return new Transaction(this, dataSource.getConnection(), autoCommit,
 				transactionIsolation);
 	}
 
@@ -23,6 +23,7 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.logging.Level;
 
+import com.opensearchserver.pojodbc.Deadline;
 import com.opensearchserver.pojodbc.Transaction;
 
 /**
@@ -42,6 +43,16 @@ import com.opensearchserver.pojodbc.Transaction;
  * connectionManager
  * 		.setUrl(&quot;jdbc:mysql://localhost:3306/dbName?autoReconnect=true&quot;);
  * </pre>
+ * <p>
+ * By default, each transaction opens a new connection. When a connection pool
+ * is set, the connections are pooled by url suffix (one partition per tenant),
+ * and closing the transaction gives the connection back to the pool.
+ * </p>
+ * 
+ * <pre>
+ * connectionManager.setConnectionPool(50, 10, 60000, 5000);
+ * transaction = connectionManager.getNewTransaction(false, null, tenantSuffix);
+ * </pre>
  * 
  */
 public class JDBCConnection extends ConnectionManager {
@@ -54,6 +65,8 @@ public class JDBCConnection extends ConnectionManager {
 
 	private String password;
 
+	private volatile ConnectionPool connectionPool;
+
 	/**
 	 * The empty constructor. Used for bean compatibility. Parameters can be
 	 * passed using setters.
@@ -113,6 +126,63 @@ public class JDBCConnection extends ConnectionManager {
 		this.password = password;
 	}
 
+	/**
+	 * Pool the connections by url suffix.
+	 * 
+	 * @param maxTotal
+	 *            the maximum number of open connections
+	 * @param maxPerSuffix
+	 *            the maximum number of open connections per url suffix
+	 * @param idleTimeout
+	 *            the time in milliseconds after which an idle connection is
+	 *            closed
+	 * @param maxWait
+	 *            the maximum time in milliseconds to wait for a connection
+	 */
+	public void setConnectionPool(int maxTotal, int maxPerSuffix,
+			long idleTimeout, long maxWait) {
+		ConnectionPool oldPool = connectionPool;
+		connectionPool = new ConnectionPool(
+				new ConnectionPool.ConnectionFactory() {
+					@Override
+					public Connection newConnection(String key)
+							throws SQLException {
+						return openConnection(key);
+					}
+				}, maxTotal, maxPerSuffix, idleTimeout, maxWait);
+		if (oldPool != null)
+			oldPool.close();
+	}
+
+	/**
+	 * @return the connection pool, or null if the connections are not pooled
+	 */
+	public ConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/**
+	 * Close the connection pool. The next transactions open their own
+	 * connection.
+	 */
+	public void closeConnectionPool() {
+		ConnectionPool pool = connectionPool;
+		connectionPool = null;
+		if (pool != null)
+			pool.close();
+	}
+
+	private Connection openConnection(String urlSuffix) throws SQLException {
+		String localUrl = url;
+		if (urlSuffix != null)
+			localUrl += urlSuffix;
+		if (logger.isLoggable(Level.FINEST))
+			logger.finest("DriverManager.getConnection " + localUrl);
+		if (username != null || password != null)
+			return DriverManager.getConnection(localUrl, username, password);
+		return DriverManager.getConnection(localUrl);
+	}
+
 	@Override
 	public Transaction getNewTransaction(boolean autoCommit,
 			Integer transactionIsolation) throws SQLException {
@@ -136,19 +206,35 @@ public class JDBCConnection extends ConnectionManager {
 	 */
 	public Transaction getNewTransaction(boolean autoCommit,
 			Integer transactionIsolation, String urlSuffix) throws SQLException {
-		String localUrl = url;
-		if (urlSuffix != null)
-			localUrl += urlSuffix;
-		if (logger.isLoggable(Level.FINEST))
-			logger.finest("DriverManager.getConnection " + localUrl);
-		Connection cnx = null;
-		if (username != null || password != null)
-			cnx = DriverManager.getConnection(localUrl, username, password);
-		else
-			cnx = DriverManager.getConnection(localUrl);
-		if (transactionIsolation != null)
-			cnx.setTransactionIsolation(transactionIsolation);
-		cnx.setAutoCommit(autoCommit);
-		return new Transaction(cnx, autoCommit, transactionIsolation);
+		return openTransaction(autoCommit, transactionIsolation, urlSuffix,
+				null);
+	}
+
+	/**
+	 * The wait for a pooled connection is bounded by the deadline.
+	 */
+	@Override
+	protected Transaction openTransaction(boolean autoCommit,
+			Integer transactionIsolation, Deadline deadline)
+			throws SQLException {
+		return openTransaction(autoCommit, transactionIsolation, null,
+				deadline);
+	}
+
+	private Transaction openTransaction(boolean autoCommit,
+			Integer transactionIsolation, String urlSuffix, Deadline deadline)
+			throws SQLException {
+		ConnectionPool pool = connectionPool;
+		Connection cnx = pool == null ? openConnection(urlSuffix) : pool
+				.getConnection(urlSuffix == null ? "" : urlSuffix, deadline);
+		try {
+			if (transactionIsolation != null)
+				cnx.setTransactionIsolation(transactionIsolation);
+			cnx.setAutoCommit(autoCommit);
+		} catch (SQLException e) {
+			close(null, null, cnx);
+			throw e;
+		}
+		return new Transaction(this, cnx, autoCommit, transactionIsolation);
 	}
 }
@@ -0,0 +1,136 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Decode the typed binary format written by BinaryEncoder.
+ */
+public class BinaryDecoder implements RowDecoder {
+
+	private byte[] kinds;
+	private int[] sqlTypes;
+	private String[] labels;
+	private final byte[] chunk;
+
+	public BinaryDecoder() {
+		chunk = new byte[8192];
+	}
+
+	@Override
+	public void readHeader(ByteSource source) throws IOException {
+		if (source.getInt() != BinaryFormat.MAGIC)
+			throw new StreamCorruptedException("Not a pojodbc binary stream");
+		byte version = source.get();
+		if (version != BinaryFormat.VERSION)
+			throw new StreamCorruptedException("Unsupported version: "
+					+ version);
+		int columnCount = source.getInt();
+		kinds = new byte[columnCount];
+		sqlTypes = new int[columnCount];
+		labels = new String[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			kinds[i] = source.get();
+			sqlTypes[i] = source.getInt();
+			labels[i] = source.getUtf8(source.getInt());
+		}
+	}
+
+	@Override
+	public int[] getSqlTypes() {
+		return sqlTypes;
+	}
+
+	/**
+	 * @return the column labels read from the header
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+
+	private byte[] readChunks(ByteSource source) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int l;
+		while ((l = source.getInt()) != 0) {
+			while (l > 0) {
+				int len = Math.min(l, chunk.length);
+				source.get(chunk, 0, len);
+				output.write(chunk, 0, len);
+				l -= len;
+			}
+		}
+		return output.toByteArray();
+	}
+
+	@Override
+	public Object[] readRow(ByteSource source) throws IOException {
+		byte marker = source.get();
+		if (marker == BinaryFormat.END)
+			return null;
+		if (marker != BinaryFormat.ROW)
+			throw new StreamCorruptedException("Unexpected marker: " + marker);
+		Object[] values = new Object[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			if (source.get() == BinaryFormat.NULL)
+				continue;
+			switch (kinds[i]) {
+			case BinaryFormat.KIND_INT:
+				values[i] = source.getInt();
+				break;
+			case BinaryFormat.KIND_LONG:
+				values[i] = source.getLong();
+				break;
+			case BinaryFormat.KIND_DOUBLE:
+				values[i] = source.getDouble();
+				break;
+			case BinaryFormat.KIND_BOOLEAN:
+				values[i] = source.get() != 0;
+				break;
+			case BinaryFormat.KIND_DECIMAL:
+				values[i] = new BigDecimal(source.getUtf8(source.getInt()));
+				break;
+			case BinaryFormat.KIND_DATE:
+				values[i] = new Date(source.getLong());
+				break;
+			case BinaryFormat.KIND_TIME:
+				values[i] = new Time(source.getLong());
+				break;
+			case BinaryFormat.KIND_TIMESTAMP:
+				Timestamp timestamp = new Timestamp(source.getLong());
+				timestamp.setNanos(source.getInt());
+				values[i] = timestamp;
+				break;
+			case BinaryFormat.KIND_BYTES:
+				values[i] = readChunks(source);
+				break;
+			default:
+				values[i] = source.getUtf8(source.getInt());
+				break;
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Encode the rows in the compact typed binary format described in
+ * BinaryFormat. The primitive columns are read with the typed getters of the
+ * ResultSet, no boxing occurs.
+ */
+public class BinaryEncoder implements RowEncoder {
+
+	private byte[] kinds;
+	private final byte[] chunk;
+
+	public BinaryEncoder() {
+		chunk = new byte[8192];
+	}
+
+	@Override
+	public void writeHeader(ResultSetMetaData metaData, ByteSink sink)
+			throws SQLException, IOException {
+		int columnCount = metaData.getColumnCount();
+		kinds = new byte[columnCount];
+		sink.putInt(BinaryFormat.MAGIC);
+		sink.put(BinaryFormat.VERSION);
+		sink.putInt(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			int sqlType = metaData.getColumnType(i + 1);
+			String label = metaData.getColumnLabel(i + 1);
+			kinds[i] = BinaryFormat.kindOf(sqlType);
+			sink.put(kinds[i]);
+			sink.putInt(sqlType);
+			writeString(label, sink);
+		}
+	}
+
+	private static void writeString(String value, ByteSink sink)
+			throws IOException {
+		sink.putInt(ByteSink.utf8Length(value));
+		sink.putUtf8(value);
+	}
+
+	private static boolean writeNull(ResultSet resultSet, ByteSink sink)
+			throws SQLException, IOException {
+		if (!resultSet.wasNull())
+			return false;
+		sink.put(BinaryFormat.NULL);
+		return true;
+	}
+
+	@Override
+	public void writeRow(ResultSet resultSet, ByteSink sink)
+			throws SQLException, IOException {
+		sink.put(BinaryFormat.ROW);
+		for (int i = 0; i < kinds.length; i++) {
+			int col = i + 1;
+			switch (kinds[i]) {
+			case BinaryFormat.KIND_INT:
+				int intValue = resultSet.getInt(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.putInt(intValue);
+				break;
+			case BinaryFormat.KIND_LONG:
+				long longValue = resultSet.getLong(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.putLong(longValue);
+				break;
+			case BinaryFormat.KIND_DOUBLE:
+				double doubleValue = resultSet.getDouble(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.putDouble(doubleValue);
+				break;
+			case BinaryFormat.KIND_BOOLEAN:
+				boolean booleanValue = resultSet.getBoolean(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.put(booleanValue ? (byte) 1 : (byte) 0);
+				break;
+			case BinaryFormat.KIND_DECIMAL:
+				BigDecimal decimal = resultSet.getBigDecimal(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				writeString(decimal.toPlainString(), sink);
+				break;
+			case BinaryFormat.KIND_DATE:
+				Date date = resultSet.getDate(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.putLong(date.getTime());
+				break;
+			case BinaryFormat.KIND_TIME:
+				Time time = resultSet.getTime(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.putLong(time.getTime());
+				break;
+			case BinaryFormat.KIND_TIMESTAMP:
+				Timestamp timestamp = resultSet.getTimestamp(col);
+				if (writeNull(resultSet, sink))
+					break;
+				sink.put(BinaryFormat.PRESENT);
+				sink.putLong(timestamp.getTime());
+				sink.putInt(timestamp.getNanos());
+				break;
+			case BinaryFormat.KIND_BYTES:
+				InputStream input = resultSet.getBinaryStream(col);
+				if (input == null) {
+					sink.put(BinaryFormat.NULL);
+					break;
+				}
+				sink.put(BinaryFormat.PRESENT);
+				try {
+					int l;
+					while ((l = input.read(chunk)) != -1) {
+						if (l == 0)
+							continue;
+						sink.putInt(l);
+						sink.put(chunk, 0, l);
+					}
+					sink.putInt(0);
+				} finally {
+					input.close();
+				}
+				break;
+			default:
+				String string = resultSet.getString(col);
+				if (string == null) {
+					sink.put(BinaryFormat.NULL);
+					break;
+				}
+				sink.put(BinaryFormat.PRESENT);
+				writeString(string, sink);
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void writeFooter(ByteSink sink) throws IOException {
+		sink.put(BinaryFormat.END);
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.sql.Types;
+
+/**
+ * The layout of the typed binary format.
+ *
+ * <pre>
+ * header : MAGIC(int) VERSION(byte) columnCount(int)
+ *          { kind(byte) sqlType(int) labelLength(int) label(utf-8) }
+ * row    : ROW(byte) { NULL(byte) | PRESENT(byte) value }
+ * footer : END(byte)
+ * </pre>
+ * <p>
+ * Values are big-endian. Strings and decimals are written as a length
+ * followed by UTF-8 bytes. Binary values are written as chunks (length
+ * followed by bytes) terminated by a zero length chunk.
+ * </p>
+ */
+final class BinaryFormat {
+
+	final static int MAGIC = 0x504A4442; // "PJDB"
+	final static byte VERSION = 1;
+
+	final static byte END = 0;
+	final static byte ROW = 1;
+
+	final static byte NULL = 0;
+	final static byte PRESENT = 1;
+
+	final static byte KIND_INT = 1;
+	final static byte KIND_LONG = 2;
+	final static byte KIND_DOUBLE = 3;
+	final static byte KIND_BOOLEAN = 4;
+	final static byte KIND_DECIMAL = 5;
+	final static byte KIND_DATE = 6;
+	final static byte KIND_TIME = 7;
+	final static byte KIND_TIMESTAMP = 8;
+	final static byte KIND_STRING = 9;
+	final static byte KIND_BYTES = 10;
+
+	private BinaryFormat() {
+	}
+
+	static byte kindOf(int sqlType) {
+		switch (sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return KIND_INT;
+		case Types.BIGINT:
+			return KIND_LONG;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return KIND_DOUBLE;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return KIND_BOOLEAN;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return KIND_DECIMAL;
+		case Types.DATE:
+			return KIND_DATE;
+		case Types.TIME:
+			return KIND_TIME;
+		case Types.TIMESTAMP:
+			return KIND_TIMESTAMP;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return KIND_BYTES;
+		default:
+			return KIND_STRING;
+		}
+	}
+}
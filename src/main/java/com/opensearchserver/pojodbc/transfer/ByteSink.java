@@ -0,0 +1,179 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A reusable direct ByteBuffer written to a WritableByteChannel each time it
+ * is full. Characters are encoded straight into the buffer, without
+ * intermediate byte arrays.
+ */
+public final class ByteSink {
+
+	final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final CharsetEncoder encoder;
+	private WritableByteChannel channel;
+	private long bytesWritten;
+
+	ByteSink(int bufferSize) {
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		encoder = UTF8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	void open(WritableByteChannel channel) {
+		this.channel = channel;
+		this.bytesWritten = 0;
+		buffer.clear();
+	}
+
+	/**
+	 * Write the content of the buffer to the channel.
+	 *
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			bytesWritten += channel.write(buffer);
+		buffer.clear();
+	}
+
+	private void ensure(int size) throws IOException {
+		if (buffer.remaining() < size)
+			flush();
+	}
+
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void put(byte b) throws IOException {
+		ensure(1);
+		buffer.put(b);
+	}
+
+	public void putInt(int i) throws IOException {
+		ensure(4);
+		buffer.putInt(i);
+	}
+
+	public void putLong(long l) throws IOException {
+		ensure(8);
+		buffer.putLong(l);
+	}
+
+	public void putDouble(double d) throws IOException {
+		ensure(8);
+		buffer.putDouble(d);
+	}
+
+	public void put(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			ensure(1);
+			int len = Math.min(length, buffer.remaining());
+			buffer.put(bytes, offset, len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Copy a stream into the buffer.
+	 *
+	 * @param input
+	 *            the stream to copy
+	 * @param chunk
+	 *            a reusable array
+	 * @throws IOException
+	 *             if the stream or the channel fails
+	 */
+	public void put(InputStream input, byte[] chunk) throws IOException {
+		int l;
+		while ((l = input.read(chunk)) != -1)
+			put(chunk, 0, l);
+	}
+
+	/**
+	 * Encode the characters in UTF-8.
+	 *
+	 * @param chars
+	 *            the characters to encode
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void putUtf8(CharSequence chars) throws IOException {
+		CharBuffer in = CharBuffer.wrap(chars);
+		encoder.reset();
+		for (;;) {
+			CoderResult result = encoder.encode(in, buffer, true);
+			if (result.isUnderflow())
+				break;
+			if (result.isOverflow()) {
+				flush();
+				continue;
+			}
+			throw new CharacterCodingException();
+		}
+		while (encoder.flush(buffer).isOverflow())
+			flush();
+	}
+
+	/**
+	 * Compute the UTF-8 length of a sequence without encoding it.
+	 *
+	 * @param chars
+	 *            the characters
+	 * @return the number of bytes
+	 */
+	public static int utf8Length(CharSequence chars) {
+		int length = 0;
+		int size = chars.length();
+		for (int i = 0; i < size; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80)
+				length++;
+			else if (c < 0x800)
+				length += 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < size
+					&& Character.isLowSurrogate(chars.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c))
+				length++; // Replaced by '?'
+			else
+				length += 3;
+		}
+		return length;
+	}
+}
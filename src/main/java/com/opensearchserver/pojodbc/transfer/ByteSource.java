@@ -0,0 +1,158 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A reusable direct ByteBuffer filled from a ReadableByteChannel each time it
+ * is empty. The counterpart of ByteSink.
+ */
+public final class ByteSource {
+
+	private final ByteBuffer buffer;
+	private ReadableByteChannel channel;
+	private boolean eof;
+	private long bytesRead;
+
+	ByteSource(int bufferSize) {
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	void open(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.eof = false;
+		this.bytesRead = 0;
+		buffer.clear();
+		buffer.flip();
+	}
+
+	long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Try to have at least size bytes available.
+	 *
+	 * @param size
+	 *            the number of bytes required
+	 * @return true if the bytes are available, false if the end of the
+	 *         channel has been reached before
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	private boolean fill(int size) throws IOException {
+		while (buffer.remaining() < size) {
+			if (eof)
+				return false;
+			buffer.compact();
+			int l = channel.read(buffer);
+			buffer.flip();
+			if (l == -1)
+				eof = true;
+			else
+				bytesRead += l;
+		}
+		return true;
+	}
+
+	private void require(int size) throws IOException {
+		if (!fill(size))
+			throw new EOFException();
+	}
+
+	/**
+	 * @return true if no more bytes are available
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	public boolean isEnd() throws IOException {
+		return !fill(1);
+	}
+
+	/**
+	 * @return the next byte without consuming it, or -1 at the end
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	public int peek() throws IOException {
+		if (!fill(1))
+			return -1;
+		return buffer.get(buffer.position()) & 0xFF;
+	}
+
+	/**
+	 * @return the next byte, or -1 at the end
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	public int read() throws IOException {
+		if (!fill(1))
+			return -1;
+		return buffer.get() & 0xFF;
+	}
+
+	public byte get() throws IOException {
+		require(1);
+		return buffer.get();
+	}
+
+	public int getInt() throws IOException {
+		require(4);
+		return buffer.getInt();
+	}
+
+	public long getLong() throws IOException {
+		require(8);
+		return buffer.getLong();
+	}
+
+	public double getDouble() throws IOException {
+		require(8);
+		return buffer.getDouble();
+	}
+
+	public void get(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			require(1);
+			int len = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Read and decode UTF-8 bytes
+	 *
+	 * @param length
+	 *            the number of bytes
+	 * @return a new String
+	 * @throws IOException
+	 *             if the channel cannot be read
+	 */
+	public String getUtf8(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		get(bytes, 0, length);
+		return new String(bytes, ByteSink.UTF8);
+	}
+}
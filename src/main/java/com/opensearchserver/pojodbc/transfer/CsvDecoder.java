@@ -0,0 +1,137 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decode RFC 4180 CSV (UTF-8). Every value is returned as a String, an empty
+ * unquoted field is returned as null. The conversion to the column type is
+ * done when the parameters are bound (see Importer.setSqlTypes).
+ */
+public class CsvDecoder implements RowDecoder {
+
+	private char delimiter;
+	private boolean header;
+	private byte[] field;
+	private int fieldLength;
+	private String[] labels;
+
+	public CsvDecoder() {
+		delimiter = ',';
+		header = true;
+		field = new byte[256];
+	}
+
+	/**
+	 * @param delimiter
+	 *            the field delimiter (default is comma)
+	 */
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * @param header
+	 *            true if the first line contains the column labels (default
+	 *            is true)
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	@Override
+	public void readHeader(ByteSource source) throws IOException {
+		if (!header)
+			return;
+		Object[] values = readRow(source);
+		if (values == null)
+			return;
+		labels = Arrays.copyOf(values, values.length, String[].class);
+	}
+
+	/**
+	 * @return the column labels read from the first line, or null
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+
+	@Override
+	public int[] getSqlTypes() {
+		return null;
+	}
+
+	private void append(int b) {
+		if (fieldLength == field.length)
+			field = Arrays.copyOf(field, field.length * 2);
+		field[fieldLength++] = (byte) b;
+	}
+
+	private String endField(boolean quoted) {
+		String value = fieldLength == 0 && !quoted ? null : new String(field,
+				0, fieldLength, ByteSink.UTF8);
+		fieldLength = 0;
+		return value;
+	}
+
+	@Override
+	public Object[] readRow(ByteSource source) throws IOException {
+		if (source.isEnd())
+			return null;
+		List<String> values = new ArrayList<String>();
+		boolean quoted = false;
+		boolean inQuotes = false;
+		fieldLength = 0;
+		for (;;) {
+			int b = source.read();
+			if (inQuotes) {
+				if (b == -1)
+					throw new IOException("Unterminated quoted field");
+				if (b == '"') {
+					if (source.peek() == '"') {
+						source.read();
+						append('"');
+					} else
+						inQuotes = false;
+				} else
+					append(b);
+				continue;
+			}
+			if (b == -1 || b == '\n') {
+				values.add(endField(quoted));
+				break;
+			}
+			if (b == '\r')
+				continue;
+			if (b == delimiter) {
+				values.add(endField(quoted));
+				quoted = false;
+			} else if (b == '"' && fieldLength == 0) {
+				quoted = true;
+				inQuotes = true;
+			} else
+				append(b);
+		}
+		return values.toArray();
+	}
+}
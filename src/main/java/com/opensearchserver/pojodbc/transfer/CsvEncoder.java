@@ -0,0 +1,151 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Encode the rows as RFC 4180 CSV (UTF-8), with CRLF line breaks. Values
+ * containing the delimiter, a quote or a line break are quoted. Empty strings
+ * are written as "" to be distinguished from NULL, which is an empty unquoted
+ * field. Binary columns are written in hexadecimal.
+ */
+public class CsvEncoder implements RowEncoder {
+
+	private final static byte[] HEX = "0123456789abcdef".getBytes(ByteSink.UTF8);
+
+	private final static byte[] CRLF = { '\r', '\n' };
+
+	private char delimiter;
+	private boolean header;
+	private boolean[] binaries;
+	private final byte[] chunk;
+
+	public CsvEncoder() {
+		delimiter = ',';
+		header = true;
+		chunk = new byte[8192];
+	}
+
+	/**
+	 * @param delimiter
+	 *            the field delimiter (default is comma)
+	 */
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * @param header
+	 *            true to write the column labels on the first line (default
+	 *            is true)
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	@Override
+	public void writeHeader(ResultSetMetaData metaData, ByteSink sink)
+			throws SQLException, IOException {
+		int columnCount = metaData.getColumnCount();
+		binaries = new boolean[columnCount];
+		for (int i = 0; i < columnCount; i++)
+			binaries[i] = BinaryFormat.kindOf(metaData.getColumnType(i + 1)) ==
+					BinaryFormat.KIND_BYTES;
+		if (!header)
+			return;
+		for (int i = 0; i < columnCount; i++) {
+			if (i > 0)
+				sink.put((byte) delimiter);
+			writeField(metaData.getColumnLabel(i + 1), sink);
+		}
+		sink.put(CRLF, 0, CRLF.length);
+	}
+
+	private boolean needQuote(String value) {
+		int length = value.length();
+		if (length == 0)
+			return true;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == delimiter || c == '"' || c == '\n' || c == '\r')
+				return true;
+		}
+		return false;
+	}
+
+	private void writeField(String value, ByteSink sink) throws IOException {
+		if (!needQuote(value)) {
+			sink.putUtf8(value);
+			return;
+		}
+		sink.put((byte) '"');
+		int start = 0;
+		int pos;
+		while ((pos = value.indexOf('"', start)) != -1) {
+			sink.putUtf8(CharBuffer.wrap(value, start, pos + 1));
+			sink.put((byte) '"');
+			start = pos + 1;
+		}
+		sink.putUtf8(CharBuffer.wrap(value, start, value.length()));
+		sink.put((byte) '"');
+	}
+
+	private void writeHex(InputStream input, ByteSink sink) throws IOException {
+		int l;
+		while ((l = input.read(chunk)) != -1)
+			for (int i = 0; i < l; i++) {
+				sink.put(HEX[(chunk[i] >> 4) & 0x0F]);
+				sink.put(HEX[chunk[i] & 0x0F]);
+			}
+	}
+
+	@Override
+	public void writeRow(ResultSet resultSet, ByteSink sink)
+			throws SQLException, IOException {
+		for (int i = 0; i < binaries.length; i++) {
+			if (i > 0)
+				sink.put((byte) delimiter);
+			if (binaries[i]) {
+				InputStream input = resultSet.getBinaryStream(i + 1);
+				if (input == null)
+					continue;
+				try {
+					writeHex(input, sink);
+				} finally {
+					input.close();
+				}
+				continue;
+			}
+			String value = resultSet.getString(i + 1);
+			if (value != null)
+				writeField(value, sink);
+		}
+		sink.put(CRLF, 0, CRLF.length);
+	}
+
+	@Override
+	public void writeFooter(ByteSink sink) {
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+import com.opensearchserver.pojodbc.Query;
+
+/**
+ * Stream the result of a Query to a WritableByteChannel.
+ * <p>
+ * The rows are read straight from the ResultSet and encoded into a reusable
+ * direct ByteBuffer. No Row or POJO objects are created, and the result is
+ * never held in memory.
+ * </p>
+ *
+ * <pre>
+ * Exporter exporter = new Exporter(new CsvEncoder());
+ * exporter.setCompression(Exporter.Compression.GZIP);
+ * Query query = transaction.prepare(&quot;SELECT * FROM MyTable&quot;);
+ * query.getStatement().setFetchSize(1000);
+ * long rows = exporter.export(query, Channels.newChannel(outputStream));
+ * </pre>
+ *
+ * An Exporter is not thread safe.
+ */
+public class Exporter {
+
+	/**
+	 * The optional compression stage
+	 */
+	public enum Compression {
+		NONE, GZIP
+	}
+
+	private final RowEncoder encoder;
+	private final ByteSink sink;
+	private Compression compression;
+	private long bytesWritten;
+
+	/**
+	 * @param encoder
+	 *            the output format (CsvEncoder, BinaryEncoder, ...)
+	 */
+	public Exporter(RowEncoder encoder) {
+		this(encoder, 64 * 1024);
+	}
+
+	/**
+	 * @param encoder
+	 *            the output format (CsvEncoder, BinaryEncoder, ...)
+	 * @param bufferSize
+	 *            the size of the direct buffer
+	 */
+	public Exporter(RowEncoder encoder, int bufferSize) {
+		this.encoder = encoder;
+		this.sink = new ByteSink(bufferSize);
+		this.compression = Compression.NONE;
+	}
+
+	/**
+	 * @param compression
+	 *            the compression applied before writing to the channel
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Export every row of the query. The channel is not closed.
+	 *
+	 * @param query
+	 *            the query to execute
+	 * @param channel
+	 *            the destination
+	 * @return the number of rows exported
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public long export(Query query, WritableByteChannel channel)
+			throws SQLException, IOException {
+		return export(query.getResultSet(), channel);
+	}
+
+	/**
+	 * Export every remaining row of the ResultSet. The channel is not closed.
+	 *
+	 * @param resultSet
+	 *            the ResultSet to read
+	 * @param channel
+	 *            the destination
+	 * @return the number of rows exported
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public long export(ResultSet resultSet, WritableByteChannel channel)
+			throws SQLException, IOException {
+		GzipOutputStream gzip = null;
+		if (compression == Compression.GZIP) {
+			gzip = new GzipOutputStream(new NonClosingOutputStream(channel));
+			sink.open(Channels.newChannel(gzip));
+		} else
+			sink.open(channel);
+		try {
+			long rows = 0;
+			encoder.writeHeader(resultSet.getMetaData(), sink);
+			while (resultSet.next()) {
+				encoder.writeRow(resultSet, sink);
+				rows++;
+			}
+			encoder.writeFooter(sink);
+			sink.flush();
+			if (gzip != null)
+				gzip.finish();
+			bytesWritten = sink.getBytesWritten();
+			return rows;
+		} finally {
+			if (gzip != null)
+				gzip.end();
+		}
+	}
+
+	/**
+	 * @return the number of bytes written by the last export, before
+	 *         compression
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	private static class GzipOutputStream extends GZIPOutputStream {
+
+		private GzipOutputStream(OutputStream output) throws IOException {
+			super(output, 64 * 1024);
+		}
+
+		/**
+		 * Release the native memory of the deflater, even if the stream has
+		 * not been finished
+		 */
+		private void end() {
+			def.end();
+		}
+	}
+
+	private static class NonClosingOutputStream extends OutputStream {
+
+		private final OutputStream output;
+
+		private NonClosingOutputStream(WritableByteChannel channel) {
+			this.output = Channels.newOutputStream(channel);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			output.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			output.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
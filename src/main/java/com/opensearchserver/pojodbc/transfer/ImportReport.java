@@ -0,0 +1,193 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics of an import. The counters are updated by the writer threads
+ * while the import is running.
+ */
+public class ImportReport {
+
+	/**
+	 * A batch which has been rolled back
+	 */
+	public static class BatchError {
+
+		private final long batchNumber;
+		private final long firstRow;
+		private final int rowCount;
+		private final Exception exception;
+
+		BatchError(long batchNumber, long firstRow, int rowCount,
+				Exception exception) {
+			this.batchNumber = batchNumber;
+			this.firstRow = firstRow;
+			this.rowCount = rowCount;
+			this.exception = exception;
+		}
+
+		/**
+		 * @return the number of the batch (starting at 0)
+		 */
+		public long getBatchNumber() {
+			return batchNumber;
+		}
+
+		/**
+		 * @return the position of the first row of the batch in the input
+		 *         (starting at 0)
+		 */
+		public long getFirstRow() {
+			return firstRow;
+		}
+
+		/**
+		 * @return the number of rows in the batch
+		 */
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public Exception getException() {
+			return exception;
+		}
+
+		@Override
+		public String toString() {
+			return "batch " + batchNumber + " rows " + firstRow + "-"
+					+ (firstRow + rowCount - 1) + ": "
+					+ exception.getMessage();
+		}
+	}
+
+	private final AtomicLong rowsRead;
+	private final AtomicLong rowsImported;
+	private final AtomicLong rowsFailed;
+	private final AtomicLong batches;
+	private final List<BatchError> errors;
+	private volatile long startTime;
+	private volatile long endTime;
+	private volatile Exception fatalError;
+
+	ImportReport() {
+		rowsRead = new AtomicLong();
+		rowsImported = new AtomicLong();
+		rowsFailed = new AtomicLong();
+		batches = new AtomicLong();
+		errors = new ArrayList<BatchError>();
+		startTime = System.currentTimeMillis();
+		endTime = 0;
+	}
+
+	void rowRead() {
+		rowsRead.incrementAndGet();
+	}
+
+	void batchImported(int rowCount) {
+		batches.incrementAndGet();
+		rowsImported.addAndGet(rowCount);
+	}
+
+	void batchFailed(long batchNumber, long firstRow, int rowCount,
+			Exception exception) {
+		batches.incrementAndGet();
+		rowsFailed.addAndGet(rowCount);
+		synchronized (errors) {
+			errors.add(new BatchError(batchNumber, firstRow, rowCount,
+					exception));
+		}
+	}
+
+	void fatal(Exception exception) {
+		if (fatalError == null)
+			fatalError = exception;
+	}
+
+	void end() {
+		endTime = System.currentTimeMillis();
+	}
+
+	public long getRowsRead() {
+		return rowsRead.get();
+	}
+
+	/**
+	 * @return the number of rows executed in successful batches
+	 */
+	public long getRowsImported() {
+		return rowsImported.get();
+	}
+
+	/**
+	 * @return the number of rows in failed batches
+	 */
+	public long getRowsFailed() {
+		return rowsFailed.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return a copy of the batch errors
+	 */
+	public List<BatchError> getErrors() {
+		synchronized (errors) {
+			return new ArrayList<BatchError>(errors);
+		}
+	}
+
+	/**
+	 * @return the error which stopped the import (unreadable input, lost
+	 *         connection, ...), or null
+	 */
+	public Exception getFatalError() {
+		return fatalError;
+	}
+
+	/**
+	 * @return the elapsed time in milliseconds
+	 */
+	public long getElapsedTime() {
+		return (endTime == 0 ? System.currentTimeMillis() : endTime)
+				- startTime;
+	}
+
+	/**
+	 * @return the number of imported rows per second
+	 */
+	public double getRowsPerSecond() {
+		long elapsed = getElapsedTime();
+		if (elapsed == 0)
+			return 0;
+		return getRowsImported() * 1000.0 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return "imported: " + getRowsImported() + " failed: "
+				+ getRowsFailed() + " batches: " + getBatches()
+				+ " rows/s: " + Math.round(getRowsPerSecond());
+	}
+}
@@ -0,0 +1,363 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.opensearchserver.pojodbc.Query;
+import com.opensearchserver.pojodbc.Transaction;
+import com.opensearchserver.pojodbc.connection.ConnectionManager;
+
+/**
+ * Load a CSV or binary input into a table.
+ * <p>
+ * A reader thread decodes the input and groups the rows into batches. Several
+ * writer threads, each one with its own Transaction and a single
+ * PreparedStatement, bind the rows and execute the batches. Each writer
+ * commits every commitInterval batches. A failed batch is rolled back (to a
+ * savepoint when several batches share a commit) and reported in the
+ * ImportReport, the import goes on with the next batch.
+ * </p>
+ *
+ * <pre>
+ * Importer importer = new Importer(connectionManager,
+ * 		&quot;INSERT INTO MyTable (id, name) VALUES (?, ?)&quot;, new CsvDecoder());
+ * importer.setSqlTypes(Types.INTEGER, Types.VARCHAR);
+ * importer.setWriters(4);
+ * ImportReport report = importer.run(FileChannel.open(path));
+ * </pre>
+ */
+public class Importer {
+
+	static protected Logger logger = Logger.getLogger(Importer.class
+			.getCanonicalName());
+
+	private final static Batch END = new Batch(-1, -1, null);
+
+	private final ConnectionManager connectionManager;
+	private final String sql;
+	private final RowDecoder decoder;
+	private Integer transactionIsolation;
+	private int batchSize;
+	private int commitInterval;
+	private int writers;
+	private int bufferSize;
+	private int[] sqlTypes;
+	private volatile int[] bindTypes;
+
+	private static class Batch {
+
+		private final long number;
+		private final long firstRow;
+		private final List<Object[]> rows;
+
+		private Batch(long number, long firstRow, List<Object[]> rows) {
+			this.number = number;
+			this.firstRow = firstRow;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * @param connectionManager
+	 *            provides one connection per writer
+	 * @param sql
+	 *            the INSERT (or UPDATE) statement, with one parameter per
+	 *            column of the input
+	 * @param decoder
+	 *            the input format (CsvDecoder, BinaryDecoder, ...)
+	 */
+	public Importer(ConnectionManager connectionManager, String sql,
+			RowDecoder decoder) {
+		this.connectionManager = connectionManager;
+		this.sql = sql;
+		this.decoder = decoder;
+		this.transactionIsolation = null;
+		this.batchSize = 1000;
+		this.commitInterval = 10;
+		this.writers = 4;
+		this.bufferSize = 64 * 1024;
+		this.sqlTypes = null;
+	}
+
+	/**
+	 * @param batchSize
+	 *            the number of rows per JDBC batch (default is 1000)
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param commitInterval
+	 *            the number of batches per commit (default is 10)
+	 */
+	public void setCommitInterval(int commitInterval) {
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * @param writers
+	 *            the number of parallel writer connections (default is 4)
+	 */
+	public void setWriters(int writers) {
+		this.writers = writers;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the size of the direct read buffer
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param transactionIsolation
+	 *            the isolation level of the writer transactions, or null
+	 */
+	public void setTransactionIsolation(Integer transactionIsolation) {
+		this.transactionIsolation = transactionIsolation;
+	}
+
+	/**
+	 * Set the java.sql.Types of the parameters. When the types are given, the
+	 * values are bound using setObject(index, value, type), which lets the
+	 * driver convert the CSV strings. Otherwise the types found in the input
+	 * (binary format) are used.
+	 *
+	 * @param sqlTypes
+	 *            one java.sql.Types per parameter
+	 */
+	public void setSqlTypes(int... sqlTypes) {
+		this.sqlTypes = sqlTypes;
+	}
+
+	/**
+	 * Run the import and wait for its completion. The channel is not closed.
+	 *
+	 * @param source
+	 *            the input
+	 * @return the report
+	 * @throws IOException
+	 *             if the input cannot be read
+	 * @throws SQLException
+	 *             if a writer cannot obtain its connection
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted
+	 */
+	public ImportReport run(final ReadableByteChannel source)
+			throws IOException, SQLException, InterruptedException {
+		final ImportReport report = new ImportReport();
+		final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(
+				writers * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			futures.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					read(source, queue, report);
+					return null;
+				}
+			}));
+			for (int i = 0; i < writers; i++)
+				futures.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						try {
+							write(queue, report);
+						} catch (Exception e) {
+							report.fatal(e);
+							queue.clear();
+							throw e;
+						}
+						return null;
+					}
+				}));
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					if (cause instanceof SQLException)
+						throw (SQLException) cause;
+					if (cause instanceof InterruptedException)
+						throw (InterruptedException) cause;
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			report.end();
+		}
+		return report;
+	}
+
+	private void put(BlockingQueue<Batch> queue, Batch batch,
+			ImportReport report) throws InterruptedException {
+		while (report.getFatalError() == null)
+			if (queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+				return;
+	}
+
+	private void read(ReadableByteChannel channel, BlockingQueue<Batch> queue,
+			ImportReport report) throws IOException, InterruptedException {
+		ByteSource source = new ByteSource(bufferSize);
+		source.open(channel);
+		try {
+			decoder.readHeader(source);
+			bindTypes = sqlTypes != null ? sqlTypes : decoder.getSqlTypes();
+			long rowNumber = 0;
+			long batchNumber = 0;
+			List<Object[]> rows = new ArrayList<Object[]>(batchSize);
+			Object[] values;
+			while ((values = decoder.readRow(source)) != null) {
+				if (report.getFatalError() != null)
+					return;
+				rows.add(values);
+				report.rowRead();
+				if (rows.size() == batchSize) {
+					put(queue, new Batch(batchNumber++, rowNumber, rows),
+							report);
+					rowNumber += rows.size();
+					rows = new ArrayList<Object[]>(batchSize);
+				}
+			}
+			if (!rows.isEmpty())
+				put(queue, new Batch(batchNumber, rowNumber, rows), report);
+		} catch (IOException e) {
+			report.fatal(e);
+			throw e;
+		} finally {
+			for (int i = 0; i < writers; i++)
+				put(queue, END, report);
+		}
+	}
+
+	private Batch take(BlockingQueue<Batch> queue, ImportReport report)
+			throws InterruptedException {
+		for (;;) {
+			Batch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+			if (batch != null)
+				return batch;
+			if (report.getFatalError() != null)
+				return END;
+		}
+	}
+
+	private void bind(PreparedStatement statement, Object[] values)
+			throws SQLException {
+		int[] sqlTypes = bindTypes;
+		for (int i = 0; i < values.length; i++) {
+			Object value = values[i];
+			int sqlType = sqlTypes != null && i < sqlTypes.length ? sqlTypes[i]
+					: Types.VARCHAR;
+			if (value == null)
+				statement.setNull(i + 1, sqlType);
+			else if (sqlTypes != null)
+				statement.setObject(i + 1, value, sqlType);
+			else
+				statement.setObject(i + 1, value);
+		}
+	}
+
+	private void write(BlockingQueue<Batch> queue, ImportReport report)
+			throws SQLException, InterruptedException {
+		Transaction transaction = null;
+		try {
+			transaction = connectionManager.getNewTransaction(false,
+					transactionIsolation);
+			Query query = transaction.prepare(sql);
+			PreparedStatement statement = query.getStatement();
+			List<Batch> pending = new ArrayList<Batch>();
+			for (;;) {
+				Batch batch = take(queue, report);
+				if (batch == END)
+					break;
+				Savepoint savepoint = commitInterval > 1 ? transaction
+						.setSavepoint() : null;
+				try {
+					for (Object[] values : batch.rows) {
+						bind(statement, values);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+					pending.add(batch);
+				} catch (SQLException e) {
+					statement.clearBatch();
+					if (savepoint != null)
+						transaction.rollback(savepoint);
+					else
+						transaction.rollback();
+					if (logger.isLoggable(Level.FINE))
+						logger.log(Level.FINE, "Batch " + batch.number
+								+ " failed", e);
+					report.batchFailed(batch.number, batch.firstRow,
+							batch.rows.size(), e);
+					continue;
+				}
+				if (savepoint != null)
+					transaction.releaseSavepoint(savepoint);
+				if (pending.size() >= commitInterval)
+					commit(transaction, pending, report);
+			}
+			commit(transaction, pending, report);
+		} finally {
+			if (transaction != null)
+				transaction.close();
+		}
+	}
+
+	private void commit(Transaction transaction, List<Batch> pending,
+			ImportReport report) throws SQLException {
+		if (pending.isEmpty())
+			return;
+		try {
+			transaction.commit();
+			for (Batch batch : pending)
+				report.batchImported(batch.rows.size());
+		} catch (SQLException e) {
+			transaction.rollback();
+			for (Batch batch : pending)
+				report.batchFailed(batch.number, batch.firstRow,
+						batch.rows.size(), e);
+		}
+		pending.clear();
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+
+/**
+ * Decode rows from a ByteSource. The counterpart of RowEncoder. A decoder is
+ * used by a single reader thread.
+ */
+public interface RowDecoder {
+
+	/**
+	 * Called once before the first row.
+	 *
+	 * @param source
+	 *            the input
+	 * @throws IOException
+	 *             if the input cannot be read or is malformed
+	 */
+	void readHeader(ByteSource source) throws IOException;
+
+	/**
+	 * @return the java.sql.Types of each column if the format carries them,
+	 *         or null
+	 */
+	int[] getSqlTypes();
+
+	/**
+	 * Decode the next row.
+	 *
+	 * @param source
+	 *            the input
+	 * @return the column values, or null if there is no more row
+	 * @throws IOException
+	 *             if the input cannot be read or is malformed
+	 */
+	Object[] readRow(ByteSource source) throws IOException;
+}
@@ -0,0 +1,72 @@
+/**
+ * License Agreement for OpenSearchServer Pojodbc
+ *
+ * Copyright 2008-2013 Emmanuel Keller / Jaeksoft
+ * Copyright 2014-2015 OpenSearchServer Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensearchserver.pojodbc.transfer;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Encode the rows of a ResultSet into a ByteSink. An encoder reads the
+ * columns directly from the ResultSet. It is not thread safe, but it can be
+ * reused for several exports.
+ */
+public interface RowEncoder {
+
+	/**
+	 * Called once before the first row.
+	 *
+	 * @param metaData
+	 *            the description of the columns
+	 * @param sink
+	 *            the destination
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the destination cannot be written
+	 */
+	void writeHeader(ResultSetMetaData metaData, ByteSink sink)
+			throws SQLException, IOException;
+
+	/**
+	 * Encode the current row of the ResultSet
+	 *
+	 * @param resultSet
+	 *            the ResultSet positioned on the row
+	 * @param sink
+	 *            the destination
+	 * @throws SQLException
+	 *             if any JDBC error occurs
+	 * @throws IOException
+	 *             if the destination cannot be written
+	 */
+	void writeRow(ResultSet resultSet, ByteSink sink) throws SQLException,
+			IOException;
+
+	/**
+	 * Called once after the last row.
+	 *
+	 * @param sink
+	 *            the destination
+	 * @throws IOException
+	 *             if the destination cannot be written
+	 */
+	void writeFooter(ByteSink sink) throws IOException;
+}